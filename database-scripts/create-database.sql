@@ -1,6 +1,11 @@
+create table AUDIT_RETENTION_RUN (AUDIT_RETENTION_RUN_ID bigint generated by default as identity, AUDIT_ROWS_REMOVED bigint not null, HORIZON timestamp not null, RETENTION_MODE varchar(255) not null, REVISIONS_REMOVED bigint not null, RUN_DATE timestamp not null, primary key (AUDIT_RETENTION_RUN_ID));
 create table AUDIT_REVISION (rev bigint generated by default as identity, REV_TIMESTAMP bigint not null, USER_NAME varchar(255) not null, primary key (rev));
+create table EMAIL_DELIVERY (TRACKING_ID varchar(36) not null, ATTEMPTS integer not null, FAILURE_REASON varchar(1000), QUEUED_AT timestamp not null, SENT_AT timestamp, STATUS varchar(10) not null, SUBJECT varchar(1000), TO_ADDRESS varchar(1000), UPDATED_AT timestamp not null, USER_NAME varchar(255), primary key (TRACKING_ID));
 create table LOOKUP_VALUE (LOOKUP_VALUE_ID bigint generated by default as identity, ACTIVE boolean not null, EFFECTIVE_FROM date, EFFECTIVE_TO date, DISPLAY_VALUE varchar(255) not null, LOOKUP_LIST_NAME varchar(100) not null, version bigint, PARENT bigint, primary key (LOOKUP_VALUE_ID));
 create table LOOKUP_VALUE_AUD (LOOKUP_VALUE_ID bigint not null, REV bigint not null, REVTYPE smallint, ACTIVE boolean, EFFECTIVE_FROM date, EFFECTIVE_TO date, DISPLAY_VALUE varchar(255), LOOKUP_LIST_NAME varchar(255), PARENT bigint, primary key (LOOKUP_VALUE_ID, REV));
+create table RENDER_TEMPLATE (TEMPLATE_NAME varchar(255) not null, CONTENT clob not null, LAST_MODIFIED timestamp not null, primary key (TEMPLATE_NAME));
+create index IDX_AUDIT_REVISION_TIMESTAMP on AUDIT_REVISION (REV_TIMESTAMP);
 create unique index UC_LOOKUP_LIST_VALUE on LOOKUP_VALUE (LOOKUP_LIST_NAME, DISPLAY_VALUE, PARENT);
 alter table LOOKUP_VALUE add constraint FK_LOOKUP_VALUE_PARENT foreign key (PARENT) references LOOKUP_VALUE;
 alter table LOOKUP_VALUE_AUD add constraint FK14l1crqdd17eimwe9dr8oo88v foreign key (REV) references AUDIT_REVISION;
+create index IDX_LOOKUP_VALUE_AUD_REV on LOOKUP_VALUE_AUD (REV);
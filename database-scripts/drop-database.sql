@@ -1,5 +1,8 @@
 alter table LOOKUP_VALUE drop constraint FK_LOOKUP_VALUE_PARENT;
 alter table LOOKUP_VALUE_AUD drop constraint FK14l1crqdd17eimwe9dr8oo88v;
+drop table AUDIT_RETENTION_RUN;
 drop table AUDIT_REVISION;
+drop table EMAIL_DELIVERY;
 drop table LOOKUP_VALUE;
 drop table LOOKUP_VALUE_AUD;
+drop table RENDER_TEMPLATE;
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of rendering the shipped templates with the
+ * FreeMarkerRenderBean.
+ * <p>
+ * The warm benchmarks render with the compiled template of the registry, the
+ * cold benchmark recompiles the template before every render. JSON and XML
+ * input is compared through the BasicJSON and BasicXML templates.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FreeMarkerRenderBenchmark {
+
+    @Param({"BasicJSON.html", "BasicJSON.txt", "BasicXML.html", "BasicXML.txt"})
+    private String templateName;
+
+    @Param({"0", "100", "10000"})
+    private int items;
+
+    private RenderBenchmarkSupport support;
+    private FreeMarkerEngineBean freeMarkerEngineBean;
+    private FreeMarkerRenderBean freeMarkerRenderBean;
+    private String contentType;
+    private String data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        support = new RenderBenchmarkSupport();
+        freeMarkerEngineBean = support.getFreeMarkerEngineBean();
+        freeMarkerRenderBean = support.getFreeMarkerRenderBean();
+        contentType = RenderBenchmarkSupport.getContentType(templateName);
+        data = RenderBenchmarkSupport.createData(contentType, items);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        support.shutdown();
+    }
+
+    @Benchmark
+    public String warm() throws Exception {
+        return freeMarkerRenderBean.render(templateName, contentType, data);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String warmMultiThreaded() throws Exception {
+        return freeMarkerRenderBean.render(templateName, contentType, data);
+    }
+
+    @Benchmark
+    public String cold() throws Exception {
+        freeMarkerEngineBean.reloadTemplate(templateName);
+        return freeMarkerRenderBean.render(templateName, contentType, data);
+    }
+}
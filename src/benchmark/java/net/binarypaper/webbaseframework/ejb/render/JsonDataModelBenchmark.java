@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks comparing the JsonDataModel with evaluating the raw JSON
+ * input data in the template with the ?eval built-in
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonDataModelBenchmark {
+
+    @Param({"0", "100", "10000"})
+    private int items;
+
+    private Configuration configuration;
+    private Template dataModelTemplate;
+    private Template evalTemplate;
+    private String data;
+
+    @Setup
+    public void setUp() throws Exception {
+        configuration = new Configuration(new Version(2, 3, 23));
+        dataModelTemplate = new Template("dataModel", "Hello ${data.firstName} ${data.surname}", configuration);
+        evalTemplate = new Template("eval", "<#assign data = data?eval>Hello ${data.firstName} ${data.surname}", configuration);
+        data = RenderBenchmarkSupport.createData(MediaType.APPLICATION_JSON, items);
+    }
+
+    @Benchmark
+    public String dataModel() throws Exception {
+        return render(dataModelTemplate, JsonDataModel.parse(data, configuration.getObjectWrapper()));
+    }
+
+    @Benchmark
+    public String eval() throws Exception {
+        return render(evalTemplate, data);
+    }
+
+    private static String render(Template template, Object data) throws Exception {
+        Map<String, Object> templateData = new HashMap<>();
+        templateData.put("data", data);
+        StringWriter writer = new StringWriter();
+        template.process(templateData, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Creates the render beans outside of the application server for the
+ * benchmarks, loading the templates shipped in the war file
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+class RenderBenchmarkSupport {
+
+    private static final String TEMPLATE_DIRECTORY = "src/main/webapp" + FreeMarkerEngineBean.TEMPLATE_PATH;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    private final FreeMarkerEngineBean freeMarkerEngineBean = new FreeMarkerEngineBean();
+    private final FreeMarkerRenderBean freeMarkerRenderBean = new FreeMarkerRenderBean();
+
+    RenderBenchmarkSupport() throws Exception {
+        inject(freeMarkerEngineBean, "executorService", managed(ManagedExecutorService.class, executorService));
+        inject(freeMarkerRenderBean, "freeMarkerEngineBean", freeMarkerEngineBean);
+        inject(freeMarkerRenderBean, "scheduledExecutorService", managed(ManagedScheduledExecutorService.class, scheduledExecutorService));
+        freeMarkerEngineBean.initialize(new FileTemplateStore(Paths.get(TEMPLATE_DIRECTORY)));
+    }
+
+    FreeMarkerEngineBean getFreeMarkerEngineBean() {
+        return freeMarkerEngineBean;
+    }
+
+    FreeMarkerRenderBean getFreeMarkerRenderBean() {
+        return freeMarkerRenderBean;
+    }
+
+    void shutdown() {
+        executorService.shutdown();
+        scheduledExecutorService.shutdown();
+    }
+
+    /**
+     * Returns the content type of the input data of a shipped template
+     *
+     * @param templateName The name of the template file
+     * @return The content type
+     */
+    static String getContentType(String templateName) {
+        return templateName.startsWith("BasicXML") ? MediaType.APPLICATION_XML : MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Create the input data of a shipped template, padded with a list of items
+     * to vary the payload size
+     *
+     * @param contentType The content type of the input data
+     * @param items The number of items of the input data
+     * @return The input data
+     */
+    static String createData(String contentType, int items) {
+        StringBuilder data = new StringBuilder();
+        if (contentType.equals(MediaType.APPLICATION_XML)) {
+            data.append("<root><firstName>Albert</firstName><surname>Einstein</surname><items>");
+            for (int i = 0; i < items; i++) {
+                data.append("<item><id>").append(i).append("</id><description>Item ").append(i).append("</description></item>");
+            }
+            return data.append("</items></root>").toString();
+        }
+        data.append("{\"firstName\": \"Albert\", \"surname\": \"Einstein\", \"items\": [");
+        for (int i = 0; i < items; i++) {
+            data.append(i == 0 ? "" : ", ").append("{\"id\": ").append(i).append(", \"description\": \"Item ").append(i).append("\"}");
+        }
+        return data.append("]}").toString();
+    }
+
+    private static <T> T managed(Class<T> managedType, Object executor) {
+        return managedType.cast(Proxy.newProxyInstance(managedType.getClassLoader(), new Class<?>[]{managedType}, (proxy, method, args) -> {
+            try {
+                return method.invoke(executor, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }));
+    }
+
+    private static void inject(Object bean, String fieldName, Object value) throws ReflectiveOperationException {
+        Field field = bean.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(bean, value);
+    }
+}
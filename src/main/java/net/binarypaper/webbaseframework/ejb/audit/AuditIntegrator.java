@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import lombok.extern.java.Log;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.boot.internal.EnversIntegrator;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.event.spi.EnversPostCollectionRecreateEventListenerImpl;
+import org.hibernate.envers.event.spi.EnversPostDeleteEventListenerImpl;
+import org.hibernate.envers.event.spi.EnversPostInsertEventListenerImpl;
+import org.hibernate.envers.event.spi.EnversPostUpdateEventListenerImpl;
+import org.hibernate.envers.event.spi.EnversPreCollectionRemoveEventListenerImpl;
+import org.hibernate.envers.event.spi.EnversPreCollectionUpdateEventListenerImpl;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Hibernate integrator that registers the audit event listeners for the
+ * configured audit mode.
+ * <p>
+ * The integrator only registers listeners if the Hibernate Envers listener
+ * auto registration has been disabled in the persistence.xml file. In the sync
+ * audit mode the standard Hibernate Envers listeners are registered and in the
+ * async audit mode the AuditJournalEventListener is registered.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class AuditIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        EnversService enversService = serviceRegistry.getService(EnversService.class);
+        if (!enversService.isEnabled() || !enversService.getEntitiesConfigurations().hasAuditedEntities()) {
+            return;
+        }
+        boolean autoRegister = serviceRegistry.getService(ConfigurationService.class)
+          .getSetting(EnversIntegrator.AUTO_REGISTER, StandardConverters.BOOLEAN, true);
+        if (autoRegister) {
+            if (AuditJournal.isEnabled()) {
+                log.warning("The async audit mode requires " + EnversIntegrator.AUTO_REGISTER
+                  + " to be false. Audit revisions will be written synchronously.");
+            }
+            return;
+        }
+        EventListenerRegistry listenerRegistry = serviceRegistry.getService(EventListenerRegistry.class);
+        if (AuditJournal.isEnabled()) {
+            AuditJournalEventListener listener = new AuditJournalEventListener(enversService);
+            listenerRegistry.appendListeners(EventType.POST_INSERT, listener);
+            listenerRegistry.appendListeners(EventType.POST_UPDATE, listener);
+            listenerRegistry.appendListeners(EventType.POST_DELETE, listener);
+            log.info("Audit revisions will be written asynchronously using the "
+              + (AuditJournal.isGuaranteed() ? "jms" : "memory") + " audit journal");
+        } else {
+            listenerRegistry.appendListeners(EventType.POST_INSERT, new EnversPostInsertEventListenerImpl(enversService));
+            listenerRegistry.appendListeners(EventType.POST_UPDATE, new EnversPostUpdateEventListenerImpl(enversService));
+            listenerRegistry.appendListeners(EventType.POST_DELETE, new EnversPostDeleteEventListenerImpl(enversService));
+            listenerRegistry.appendListeners(EventType.POST_COLLECTION_RECREATE, new EnversPostCollectionRecreateEventListenerImpl(enversService));
+            listenerRegistry.appendListeners(EventType.PRE_COLLECTION_REMOVE, new EnversPreCollectionRemoveEventListenerImpl(enversService));
+            listenerRegistry.appendListeners(EventType.PRE_COLLECTION_UPDATE, new EnversPreCollectionUpdateEventListenerImpl(enversService));
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+}
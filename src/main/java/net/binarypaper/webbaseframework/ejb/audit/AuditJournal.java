@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSContext;
+import javax.jms.Queue;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.TransactionSynchronizationRegistry;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.entity.CurrentUser;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+import org.hibernate.HibernateException;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+
+/**
+ * The journal used by the asynchronous audit mode to pass captured entity
+ * changes from the database transaction that made them to the background audit
+ * writer.
+ * <p>
+ * The changes of a transaction are collected in an AuditJournalEntry, which is
+ * a resource of the transaction, and only journaled once the transaction
+ * completes. The memory journal keeps the entries in a bounded in-memory
+ * queue, of which a place is reserved before the transaction commits: if the
+ * journal stays full for the offer timeout, the transaction fails instead of
+ * waiting for the background writer. The jms journal sends the entries to a
+ * persistent JMS queue as part of the transaction, which guarantees that the
+ * audit revision will be written even if the server stops.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class AuditJournal {
+
+    public static final String AUDIT_QUEUE = "java:/jms/queue/AuditQueue";
+    private static final String CONNECTION_FACTORY = "java:/JmsXA";
+    private static final String TRANSACTION_SYNCHRONIZATION_REGISTRY = "java:comp/TransactionSynchronizationRegistry";
+
+    private static final boolean ENABLED = "async".equalsIgnoreCase(ApplicationSettings.getString("audit.mode"));
+    private static final boolean GUARANTEED = "jms".equalsIgnoreCase(ApplicationSettings.getString("audit.journal"));
+    private static final long OFFER_TIMEOUT = ApplicationSettings.getLong("audit.journal.offer_timeout_ms");
+    private static final LinkedBlockingDeque<AuditJournalEntry> ENTRIES = new LinkedBlockingDeque<>();
+    // The places in the memory journal that are not taken or reserved
+    private static final Semaphore CAPACITY = new Semaphore(ApplicationSettings.getInt("audit.journal.capacity"));
+    private static final Deque<AuditJournalEntry> RETRY = new ArrayDeque<>();
+
+    private static ConnectionFactory connectionFactory;
+    private static Queue auditQueue;
+    private static TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    /**
+     * Returns true if the asynchronous audit mode is enabled
+     *
+     * @return true if audit changes are journaled
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns true if the journal entries are sent to a persistent JMS queue
+     *
+     * @return true if the jms journal is used
+     */
+    public static boolean isGuaranteed() {
+        return GUARANTEED;
+    }
+
+    /**
+     * Record a change made by the current transaction of the session
+     *
+     * @param session The session that made the change
+     * @param entityKey The key that uniquely identifies the changed entity
+     * @param change The captured change
+     */
+    public static void record(EventSource session, String entityKey, AuditJournalChange change) {
+        // The entry is released by the transaction manager when the transaction ends
+        TransactionSynchronizationRegistry registry = getTransactionSynchronizationRegistry();
+        AuditJournalEntry entry = (AuditJournalEntry) registry.getResource(session);
+        if (entry == null) {
+            entry = new AuditJournalEntry();
+            entry.setRevisionTimestamp(System.currentTimeMillis());
+            entry.setUserName(CurrentUser.getAuditUserName());
+            registry.putResource(session, entry);
+            TransactionCompletion completion = new TransactionCompletion(entry);
+            session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) completion);
+            session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) completion);
+        }
+        entry.addChange(entityKey, change);
+    }
+
+    /**
+     * Remove up to the maximum number of entries from the memory journal,
+     * starting with the entries that could not be written before
+     *
+     * @param maxEntries The maximum number of entries to remove
+     * @return The removed entries in the order they were journaled
+     */
+    public static List<AuditJournalEntry> drain(int maxEntries) {
+        List<AuditJournalEntry> entries = new ArrayList<>();
+        synchronized (RETRY) {
+            while (!RETRY.isEmpty() && (entries.size() < maxEntries)) {
+                entries.add(RETRY.removeFirst());
+            }
+        }
+        CAPACITY.release(ENTRIES.drainTo(entries, maxEntries - entries.size()));
+        return entries;
+    }
+
+    /**
+     * Return entries that could not be written to the front of the memory
+     * journal, so that they will be written first by the next flush.
+     * <p>
+     * The entries are kept outside the bounded queue, as new entries may have
+     * filled it since they were drained.
+     *
+     * @param entries The entries to return to the journal
+     */
+    public static void requeue(List<AuditJournalEntry> entries) {
+        synchronized (RETRY) {
+            ListIterator<AuditJournalEntry> iterator = entries.listIterator(entries.size());
+            while (iterator.hasPrevious()) {
+                RETRY.addFirst(iterator.previous());
+            }
+        }
+    }
+
+    private static void send(AuditJournalEntry entry) {
+        try {
+            if (connectionFactory == null) {
+                InitialContext context = new InitialContext();
+                auditQueue = (Queue) context.lookup(AUDIT_QUEUE);
+                connectionFactory = (ConnectionFactory) context.lookup(CONNECTION_FACTORY);
+            }
+        } catch (NamingException ex) {
+            throw new HibernateException("The audit journal queue could not be found", ex);
+        }
+        try (JMSContext jmsContext = connectionFactory.createContext()) {
+            jmsContext.createProducer()
+              .setDeliveryMode(DeliveryMode.PERSISTENT)
+              .send(auditQueue, AuditJournalCodec.createMessage(jmsContext, entry));
+        }
+    }
+
+    /**
+     * Reserve a place in the memory journal for an entry, so that journaling
+     * the entry after the transaction has committed cannot block
+     *
+     * @throws HibernateException If the journal stays full for the offer
+     * timeout, which fails the transaction rather than losing its audit
+     * revision
+     */
+    private static void reserve() {
+        try {
+            if (CAPACITY.tryAcquire(OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        log.severe("The audit journal is full, the background writer is not keeping up");
+        throw new HibernateException("The audit journal is full");
+    }
+
+    private static TransactionSynchronizationRegistry getTransactionSynchronizationRegistry() {
+        try {
+            if (transactionSynchronizationRegistry == null) {
+                transactionSynchronizationRegistry = (TransactionSynchronizationRegistry) new InitialContext().lookup(TRANSACTION_SYNCHRONIZATION_REGISTRY);
+            }
+        } catch (NamingException ex) {
+            throw new HibernateException("The transaction synchronization registry could not be found", ex);
+        }
+        return transactionSynchronizationRegistry;
+    }
+
+    private static class TransactionCompletion implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+        private final AuditJournalEntry entry;
+        private boolean reserved;
+
+        TransactionCompletion(AuditJournalEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            if (entry.isEmpty()) {
+                return;
+            }
+            if (GUARANTEED) {
+                // Sending in the transaction makes the JMS journal entry part
+                // of the same unit of work as the entity changes
+                send(entry);
+            } else {
+                reserve();
+                reserved = true;
+            }
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+            if (!reserved) {
+                return;
+            }
+            if (success) {
+                ENTRIES.add(entry);
+            } else {
+                CAPACITY.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.envers.RevisionType;
+
+/**
+ * A single change to an audited entity captured in the audit journal.
+ * <p>
+ * The data map contains the audit row exactly as Hibernate Envers would have
+ * written it, except for the original id, which is kept separately as the
+ * revision is only added to it when the change is written to the audit table.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditJournalChange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String auditEntityName;
+
+    private RevisionType revisionType;
+
+    private HashMap<String, Object> originalId;
+
+    private HashMap<String, Object> data;
+
+}
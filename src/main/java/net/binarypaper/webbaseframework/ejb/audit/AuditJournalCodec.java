@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.jms.BytesMessage;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import org.hibernate.envers.RevisionType;
+
+/**
+ * Converts audit journal entries to and from the binary format of the JMS
+ * BytesMessages on the audit queue.
+ * <p>
+ * The format starts with a version byte, followed by the revision timestamp,
+ * the user name and the changes of the entry. Every value of the original id
+ * and data of a change starts with a type byte. Java serialized
+ * ObjectMessages sent by previous versions can still be read.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class AuditJournalCodec {
+
+    private static final byte VERSION = 1;
+    private static final int NULL_LENGTH = -1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_BYTE = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_FLOAT = 8;
+    private static final byte TYPE_BIG_DECIMAL = 9;
+    private static final byte TYPE_BIG_INTEGER = 10;
+    private static final byte TYPE_DATE = 11;
+    private static final byte TYPE_SQL_DATE = 12;
+    private static final byte TYPE_SQL_TIME = 13;
+    private static final byte TYPE_SQL_TIMESTAMP = 14;
+    private static final byte TYPE_CHARACTER = 15;
+    private static final byte TYPE_BYTES = 16;
+    private static final byte TYPE_ENUM = 17;
+    private static final byte TYPE_MAP = 18;
+
+    private AuditJournalCodec() {
+    }
+
+    /**
+     * Create a JMS BytesMessage of an audit journal entry
+     *
+     * @param jmsContext The JMS context the message is created with
+     * @param entry The audit journal entry
+     * @return The JMS message
+     * @throws JMSRuntimeException If the message cannot be created
+     */
+    public static BytesMessage createMessage(JMSContext jmsContext, AuditJournalEntry entry) {
+        BytesMessage message = jmsContext.createBytesMessage();
+        try {
+            message.writeBytes(encode(entry));
+        } catch (JMSException ex) {
+            throw new JMSRuntimeException(ex.getMessage(), ex.getErrorCode(), ex);
+        }
+        return message;
+    }
+
+    /**
+     * Read the audit journal entry of a JMS message
+     *
+     * @param message A BytesMessage, or an ObjectMessage sent by a previous
+     * version
+     * @return The audit journal entry, or null if the message is not an audit
+     * journal entry
+     * @throws JMSException If the message cannot be read
+     */
+    public static AuditJournalEntry readMessage(Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            return decode(message.getBody(byte[].class));
+        }
+        if (message instanceof ObjectMessage) {
+            Object object = ((ObjectMessage) message).getObject();
+            return object instanceof AuditJournalEntry ? (AuditJournalEntry) object : null;
+        }
+        return null;
+    }
+
+    /**
+     * Encode an audit journal entry
+     *
+     * @param entry The audit journal entry
+     * @return The encoded audit journal entry
+     * @throws IllegalArgumentException If a value of a change has a type that
+     * cannot be encoded
+     */
+    public static byte[] encode(AuditJournalEntry entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeLong(entry.getRevisionTimestamp());
+            writeString(out, entry.getUserName());
+            out.writeInt(entry.getChanges().size());
+            for (Map.Entry<String, AuditJournalChange> change : entry.getChanges().entrySet()) {
+                writeString(out, change.getKey());
+                writeString(out, change.getValue().getAuditEntityName());
+                out.writeByte(change.getValue().getRevisionType().getRepresentation());
+                writeValue(out, change.getValue().getOriginalId());
+                writeValue(out, change.getValue().getData());
+            }
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("The audit journal entry could not be encoded", ex);
+        }
+    }
+
+    /**
+     * Decode an audit journal entry
+     *
+     * @param bytes The encoded audit journal entry
+     * @return The audit journal entry
+     * @throws JMSException If the bytes are not an encoded audit journal entry
+     */
+    public static AuditJournalEntry decode(byte[] bytes) throws JMSException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new JMSException("Unsupported audit journal entry format version " + version);
+            }
+            AuditJournalEntry entry = new AuditJournalEntry();
+            entry.setRevisionTimestamp(in.readLong());
+            entry.setUserName(readString(in));
+            for (int count = in.readInt(); count > 0; count--) {
+                String entityKey = readString(in);
+                AuditJournalChange change = new AuditJournalChange();
+                change.setAuditEntityName(readString(in));
+                change.setRevisionType(RevisionType.fromRepresentation(in.readByte()));
+                change.setOriginalId(readMap(in));
+                change.setData(readMap(in));
+                entry.getChanges().put(entityKey, change);
+            }
+            return entry;
+        } catch (IOException | IllegalArgumentException | ClassCastException ex) {
+            JMSException jmsException = new JMSException("The audit journal entry could not be decoded: " + ex.getMessage());
+            jmsException.setLinkedException(ex);
+            throw jmsException;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(TYPE_BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_SQL_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TYPE_SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(TYPE_SQL_TIME);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Character) {
+            out.writeByte(TYPE_CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Enum) {
+            out.writeByte(TYPE_ENUM);
+            writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) value).name());
+        } else if (value instanceof Map) {
+            out.writeByte(TYPE_MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> mapEntry : map.entrySet()) {
+                writeString(out, (String) mapEntry.getKey());
+                writeValue(out, mapEntry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("An audit journal value of type " + value.getClass().getName() + " cannot be encoded");
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case TYPE_BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case TYPE_SQL_TIME:
+                return new Time(in.readLong());
+            case TYPE_SQL_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case TYPE_CHARACTER:
+                return in.readChar();
+            case TYPE_BYTES:
+                return readBytes(in);
+            case TYPE_ENUM:
+                String className = readString(in);
+                try {
+                    return Enum.valueOf((Class<? extends Enum>) Class.forName(className, true, AuditJournalCodec.class.getClassLoader()), readString(in));
+                } catch (ClassNotFoundException ex) {
+                    throw new IOException("The enum " + className + " does not exist", ex);
+                }
+            case TYPE_MAP:
+                HashMap<String, Object> map = new HashMap<>();
+                for (int count = in.readInt(); count > 0; count--) {
+                    map.put(readString(in), readValue(in));
+                }
+                return map;
+            default:
+                throw new IOException("Unsupported audit journal value type " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, Object> readMap(DataInputStream in) throws IOException {
+        return (HashMap<String, Object>) readValue(in);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import lombok.Data;
+import org.hibernate.envers.RevisionType;
+
+/**
+ * All the audited changes of one database transaction, which will be written
+ * as one audit revision.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+public class AuditJournalEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long revisionTimestamp;
+
+    private String userName;
+
+    private final LinkedHashMap<String, AuditJournalChange> changes = new LinkedHashMap<>();
+
+    /**
+     * Add a change of an entity to the journal entry.
+     * <p>
+     * An entity may only have one audit row per revision, therefore a change to
+     * an entity that has already been changed in the same transaction is
+     * merged with the previous change in the same way Hibernate Envers merges
+     * its work units.
+     *
+     * @param entityKey The key that uniquely identifies the changed entity
+     * @param change The change to add
+     */
+    public void addChange(String entityKey, AuditJournalChange change) {
+        AuditJournalChange previous = changes.get(entityKey);
+        if (previous == null) {
+            changes.put(entityKey, change);
+            return;
+        }
+        RevisionType previousType = previous.getRevisionType();
+        RevisionType type = change.getRevisionType();
+        if (previousType == RevisionType.ADD && type == RevisionType.DEL) {
+            // The entity was added and removed in the same transaction
+            changes.remove(entityKey);
+            return;
+        }
+        if (previousType == RevisionType.ADD) {
+            type = RevisionType.ADD;
+        } else if (previousType == RevisionType.DEL && type == RevisionType.ADD) {
+            type = RevisionType.MOD;
+        }
+        change.setRevisionType(type);
+        changes.put(entityKey, change);
+    }
+
+    public Collection<AuditJournalChange> getChangeList() {
+        return changes.values();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.envers.internal.entities.EntityConfiguration;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Hibernate event listener used by the asynchronous audit mode instead of the
+ * Hibernate Envers listeners.
+ * <p>
+ * The audit row of every change to an audited entity is mapped in the same way
+ * Hibernate Envers maps it, but it is recorded in the AuditJournal instead of
+ * being written to the audit table in the current transaction. Changes to
+ * collections that are not owned by an audited entity are not journaled.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class AuditJournalEventListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final EnversService enversService;
+
+    public AuditJournalEventListener(EnversService enversService) {
+        this.enversService = enversService;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        record(event.getSession(), event.getPersister(), event.getId(), RevisionType.ADD, event.getState(), null);
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        record(event.getSession(), event.getPersister(), event.getId(), RevisionType.MOD, event.getState(), event.getOldState());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        Object[] state = null;
+        if (enversService.getGlobalConfiguration().isStoreDataAtDelete()) {
+            state = event.getDeletedState();
+        }
+        record(event.getSession(), event.getPersister(), event.getId(), RevisionType.DEL, state, state);
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private void record(EventSource session, EntityPersister persister, Serializable id,
+      RevisionType revisionType, Object[] state, Object[] oldState) {
+        String entityName = persister.getEntityName();
+        if (!enversService.getEntitiesConfigurations().isVersioned(entityName)) {
+            return;
+        }
+        AuditEntitiesConfiguration auditConfiguration = enversService.getAuditEntitiesConfiguration();
+        EntityConfiguration entityConfiguration = enversService.getEntitiesConfigurations().get(entityName);
+        HashMap<String, Object> originalId = new HashMap<>();
+        entityConfiguration.getIdMapper().mapToMapFromId(originalId, id);
+        HashMap<String, Object> data = new HashMap<>();
+        if (state != null) {
+            boolean changed = entityConfiguration.getPropertyMapper()
+              .map(session, data, persister.getPropertyNames(), state, oldState);
+            if ((revisionType == RevisionType.MOD) && !changed) {
+                return;
+            }
+        }
+        AuditJournalChange change = new AuditJournalChange(auditConfiguration.getAuditEntityName(entityName), revisionType, originalId, data);
+        AuditJournal.record(session, entityName + "#" + id, change);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.util.List;
+import javax.annotation.PreDestroy;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * An EJB Singleton Session Bean that periodically writes the entries of the
+ * memory audit journal in batches and flushes the journal when the application
+ * is shut down
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@Startup
+// Lombok annotations
+@Log
+public class AuditJournalFlushBean {
+
+    private static final int BATCH_SIZE = ApplicationSettings.getInt("audit.journal.batch_size");
+
+    @EJB
+    private AuditJournalWriterBean auditJournalWriterBean;
+
+    // EJB annotations
+    @Schedule(hour = "*", minute = "*", second = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void flush() {
+        if (!AuditJournal.isEnabled() || AuditJournal.isGuaranteed()) {
+            return;
+        }
+        List<AuditJournalEntry> entries = AuditJournal.drain(BATCH_SIZE);
+        while (!entries.isEmpty()) {
+            try {
+                auditJournalWriterBean.write(entries);
+            } catch (RuntimeException ex) {
+                // Keep the entries in the journal to retry on the next flush
+                AuditJournal.requeue(entries);
+                log.severe("The audit journal could not be written: " + ex.getMessage());
+                return;
+            }
+            entries = AuditJournal.drain(BATCH_SIZE);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.util.Collections;
+import javax.annotation.Resource;
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.ejb.MessageDrivenContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import lombok.extern.java.Log;
+
+/**
+ * Message Driven Bean that writes the entries of the jms audit journal
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@MessageDriven(activationConfig = {
+    @ActivationConfigProperty(propertyName = "destinationLookup", propertyValue = AuditJournal.AUDIT_QUEUE),
+    @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue")
+})
+// Lombok annotations
+@Log
+public class AuditJournalMessageBean implements MessageListener {
+
+    @Resource
+    private MessageDrivenContext mdc;
+
+    @EJB
+    private AuditJournalWriterBean auditJournalWriterBean;
+
+    @Override
+    public void onMessage(Message message) {
+        try {
+            AuditJournalEntry entry = AuditJournalCodec.readMessage(message);
+            if (entry == null) {
+                log.warning("The JMS message " + message.getJMSMessageID() + " is not an audit journal entry");
+            } else {
+                auditJournalWriterBean.write(Collections.singletonList(entry));
+            }
+        } catch (JMSException | RuntimeException ex) {
+            log.severe(ex.getMessage());
+            mdc.setRollbackOnly();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import net.binarypaper.webbaseframework.entity.AuditRevision;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+
+/**
+ * An EJB Stateless Session Bean that writes audit journal entries to the audit
+ * revision and entity audit tables
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Stateless
+@LocalBean
+public class AuditJournalWriterBean {
+
+    @PersistenceContext(unitName = "WebBaseFrameworkPU")
+    private EntityManager em;
+
+    /**
+     * Write a batch of journal entries in the current transaction, or a new
+     * transaction if the caller does not have one.
+     * <p>
+     * Every entry is written as one audit revision with the timestamp and user
+     * name captured when the change was made.
+     *
+     * @param entries The journal entries to write
+     */
+    public void write(List<AuditJournalEntry> entries) {
+        Session session = em.unwrap(Session.class);
+        EnversService enversService = ((SessionImplementor) session).getFactory()
+          .getServiceRegistry().getService(EnversService.class);
+        AuditEntitiesConfiguration auditConfiguration = enversService.getAuditEntitiesConfiguration();
+        for (AuditJournalEntry entry : entries) {
+            AuditRevision auditRevision = new AuditRevision();
+            auditRevision.setRevisionTimestamp(entry.getRevisionTimestamp());
+            auditRevision.setUserName(entry.getUserName());
+            em.persist(auditRevision);
+            for (AuditJournalChange change : entry.getChangeList()) {
+                Map<String, Object> data = new HashMap<>(change.getData());
+                Map<String, Object> originalId = new HashMap<>(change.getOriginalId());
+                originalId.put(auditConfiguration.getRevisionFieldName(), auditRevision);
+                data.put(auditConfiguration.getOriginalIdPropName(), originalId);
+                data.put(auditConfiguration.getRevisionTypePropName(), change.getRevisionType());
+                session.save(change.getAuditEntityName(), data);
+            }
+        }
+        em.flush();
+        em.clear();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ScheduleExpression;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.entity.AuditRetentionRun;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+/**
+ * An EJB Singleton Session Bean that removes audit revisions older than the
+ * configured retention horizon.
+ * <p>
+ * In the delete mode all the audit rows and audit revisions before the horizon
+ * are removed. In the compact mode the latest audit row of every entity before
+ * the horizon is kept, so that the state of the entity at the horizon can
+ * still be retrieved. The revisions are processed in bounded batches, each in
+ * its own transaction, to avoid holding long locks on the audit tables. The job
+ * runs every day at the time configured in the application settings.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@Startup
+// Lombok annotations
+@Log
+public class AuditRetentionBean {
+
+    private static final int RETENTION_DAYS = ApplicationSettings.getInt("audit.retention.days");
+    private static final String MODE = ApplicationSettings.getString("audit.retention.mode");
+    private static final int BATCH_SIZE = ApplicationSettings.getInt("audit.retention.batch_size");
+    private static final String SCHEDULE_HOUR = ApplicationSettings.getString("audit.retention.schedule.hour");
+    private static final String SCHEDULE_MINUTE = ApplicationSettings.getString("audit.retention.schedule.minute");
+
+    @PersistenceContext(unitName = "WebBaseFrameworkPU")
+    private EntityManager em;
+
+    @Resource
+    private SessionContext sessionContext;
+
+    @Resource
+    private TimerService timerService;
+
+    private List<AuditTable> auditTables;
+
+    @PostConstruct
+    public void scheduleRetention() {
+        if (RETENTION_DAYS <= 0) {
+            return;
+        }
+        ScheduleExpression schedule = new ScheduleExpression().hour(SCHEDULE_HOUR).minute(SCHEDULE_MINUTE);
+        timerService.createCalendarTimer(schedule, new TimerConfig(null, false));
+    }
+
+    // EJB annotations
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void applyRetention() {
+        AuditRetentionBean self = sessionContext.getBusinessObject(AuditRetentionBean.class);
+        AuditRetentionRun run = new AuditRetentionRun();
+        run.setRunDate(new Date());
+        run.setHorizon(new Date(run.getRunDate().getTime() - TimeUnit.DAYS.toMillis(RETENTION_DAYS)));
+        run.setMode(MODE);
+        Long horizonRev = self.getHorizonRevision(run.getHorizon().getTime());
+        Long lastRev = 0L;
+        while (horizonRev != null) {
+            List<Long> revisions = self.getRevisionBatch(lastRev, horizonRev);
+            if (revisions.isEmpty()) {
+                break;
+            }
+            long[] removed = self.removeRevisions(revisions, horizonRev);
+            run.setRevisionsRemoved(run.getRevisionsRemoved() + removed[0]);
+            run.setAuditRowsRemoved(run.getAuditRowsRemoved() + removed[1]);
+            lastRev = revisions.get(revisions.size() - 1);
+        }
+        self.recordRun(run);
+        log.info(String.format("Audit retention removed %d revisions and %d audit rows created before %s",
+          run.getRevisionsRemoved(), run.getAuditRowsRemoved(), run.getHorizon()));
+    }
+
+    /**
+     * Returns the latest revision created before the horizon
+     *
+     * @param horizon The horizon timestamp
+     * @return The revision number, or null if no revisions are older than the
+     * horizon
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Long getHorizonRevision(long horizon) {
+        return em.createQuery("SELECT MAX(ar.rev) FROM AuditRevision ar WHERE ar.revisionTimestamp < :horizon", Long.class)
+          .setParameter("horizon", horizon)
+          .getSingleResult();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<Long> getRevisionBatch(Long afterRev, Long horizonRev) {
+        return em.createQuery("SELECT ar.rev FROM AuditRevision ar WHERE ar.rev > :afterRev AND ar.rev <= :horizonRev ORDER BY ar.rev", Long.class)
+          .setParameter("afterRev", afterRev)
+          .setParameter("horizonRev", horizonRev)
+          .setMaxResults(BATCH_SIZE)
+          .getResultList();
+    }
+
+    /**
+     * Remove a batch of audit revisions and their audit rows
+     *
+     * @param revisions The revision numbers of the batch
+     * @param horizonRev The latest revision before the horizon
+     * @return The number of revisions and the number of audit rows removed
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long[] removeRevisions(List<Long> revisions, Long horizonRev) {
+        long auditRowsRemoved = 0;
+        StringBuilder unreferenced = new StringBuilder();
+        for (AuditTable auditTable : getAuditTables()) {
+            if ("compact".equalsIgnoreCase(MODE)) {
+                auditRowsRemoved += removeSupersededRows(auditTable, revisions, horizonRev);
+            } else {
+                auditRowsRemoved += em.createNativeQuery("DELETE FROM " + auditTable.name + " WHERE " + auditTable.revisionColumn + " IN (:revisions)")
+                  .setParameter("revisions", revisions)
+                  .executeUpdate();
+            }
+            unreferenced.append(" AND NOT EXISTS (SELECT 1 FROM ").append(auditTable.name)
+              .append(" WHERE ").append(auditTable.name).append(".").append(auditTable.revisionColumn)
+              .append(" = AUDIT_REVISION.REV)");
+        }
+        long revisionsRemoved = em.createNativeQuery("DELETE FROM AUDIT_REVISION WHERE REV IN (:revisions)" + unreferenced)
+          .setParameter("revisions", revisions)
+          .executeUpdate();
+        return new long[]{revisionsRemoved, auditRowsRemoved};
+    }
+
+    /**
+     * Remove the audit rows of a batch of revisions that have been superseded
+     * by a later audit row of the same entity before the horizon.
+     * <p>
+     * The rows are selected before they are deleted, as databases such as
+     * MySQL do not allow a delete statement to select from its own table.
+     *
+     * @return The number of audit rows removed
+     */
+    private long removeSupersededRows(AuditTable auditTable, List<Long> revisions, Long horizonRev) {
+        List<?> rows = em.createNativeQuery("SELECT " + auditTable.keyColumns(auditTable.name) + " FROM " + auditTable.name
+          + " WHERE " + auditTable.revisionColumn + " IN (:revisions)"
+          + " AND EXISTS (SELECT 1 FROM " + auditTable.name + " newer WHERE "
+          + auditTable.idColumnsEqual("newer")
+          + " AND newer." + auditTable.revisionColumn + " > " + auditTable.name + "." + auditTable.revisionColumn
+          + " AND newer." + auditTable.revisionColumn + " <= :horizonRev)")
+          .setParameter("revisions", revisions)
+          .setParameter("horizonRev", horizonRev)
+          .getResultList();
+        long removed = 0;
+        for (Object row : rows) {
+            Object[] key = (Object[]) row;
+            javax.persistence.Query query = em.createNativeQuery("DELETE FROM " + auditTable.name + " WHERE " + auditTable.keyColumnsEqualParameters());
+            for (int i = 0; i < key.length; i++) {
+                query.setParameter(i + 1, key[i]);
+            }
+            removed += query.executeUpdate();
+        }
+        return removed;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void recordRun(AuditRetentionRun run) {
+        em.persist(run);
+    }
+
+    private List<AuditTable> getAuditTables() {
+        if (auditTables == null) {
+            SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) em.unwrap(Session.class).getSessionFactory();
+            String revisionColumn = sessionFactory.getServiceRegistry().getService(EnversService.class)
+              .getAuditEntitiesConfiguration().getRevisionFieldName();
+            List<AuditTable> tables = new ArrayList<>();
+            for (ClassMetadata classMetadata : sessionFactory.getAllClassMetadata().values()) {
+                AbstractEntityPersister persister = (AbstractEntityPersister) classMetadata;
+                List<String> idColumns = new ArrayList<>(Arrays.asList(persister.getIdentifierColumnNames()));
+                // Audit tables are identified by the revision column in their primary key
+                if (idColumns.remove(revisionColumn)) {
+                    tables.add(new AuditTable(persister.getTableName(), revisionColumn, idColumns));
+                }
+            }
+            auditTables = tables;
+        }
+        return auditTables;
+    }
+
+    private static class AuditTable {
+
+        private final String name;
+        private final String revisionColumn;
+        private final List<String> idColumns;
+
+        AuditTable(String name, String revisionColumn, List<String> idColumns) {
+            this.name = name;
+            this.revisionColumn = revisionColumn;
+            this.idColumns = idColumns;
+        }
+
+        String keyColumns(String alias) {
+            StringBuilder sql = new StringBuilder();
+            for (String idColumn : idColumns) {
+                sql.append(alias).append(".").append(idColumn).append(", ");
+            }
+            return sql.append(alias).append(".").append(revisionColumn).toString();
+        }
+
+        String keyColumnsEqualParameters() {
+            StringBuilder sql = new StringBuilder();
+            int position = 1;
+            for (String idColumn : idColumns) {
+                sql.append(idColumn).append(" = ?").append(position++).append(" AND ");
+            }
+            return sql.append(revisionColumn).append(" = ?").append(position).toString();
+        }
+
+        String idColumnsEqual(String alias) {
+            StringBuilder sql = new StringBuilder();
+            for (String idColumn : idColumns) {
+                if (sql.length() > 0) {
+                    sql.append(" AND ");
+                }
+                sql.append(alias).append(".").append(idColumn).append(" = ").append(name).append(".").append(idColumn);
+            }
+            return sql.toString();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import javax.activation.DataSource;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * The claim check store of large email bodies.
+ * <p>
+ * Email bodies larger than the claim check threshold are written once to a
+ * file of the store directory, and the queued email message only carries the
+ * reference to the file. The body is streamed from the file into the MIME
+ * message when it is sent and the file is deleted once the email message has
+ * been sent, or when the transaction that stored it is rolled back. When the
+ * application runs on several nodes, the store directory must be shared by
+ * all of them.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class EmailBodyStore {
+
+    private static final int THRESHOLD = ApplicationSettings.getInt("mail.claim_check.threshold");
+    private static final Path DIRECTORY = getDirectory(ApplicationSettings.getString("mail.claim_check.directory"));
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+    private static final String TRANSACTION_SYNCHRONIZATION_REGISTRY = "java:comp/TransactionSynchronizationRegistry";
+
+    private EmailBodyStore() {
+    }
+
+    /**
+     * Move the body of an email message to the store if it is larger than the
+     * claim check threshold. The stored body is deleted if the current
+     * transaction is rolled back, as the email message is then not queued.
+     *
+     * @param emailMessage The email message
+     * @throws IOException If the body cannot be written to the store
+     */
+    public static void checkIn(EmailMessage emailMessage) throws IOException {
+        String body = emailMessage.getBody();
+        if ((THRESHOLD <= 0) || (body == null) || (body.length() <= THRESHOLD)) {
+            return;
+        }
+        Files.createDirectories(DIRECTORY);
+        String reference = UUID.randomUUID().toString();
+        try (OutputStream out = Files.newOutputStream(getFile(reference))) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        deleteOnRollback(reference, getTransactionSynchronizationRegistry());
+        emailMessage.setBodyReference(reference);
+        emailMessage.setBody(null);
+    }
+
+    /**
+     * Delete a stored body when the current transaction does not commit
+     *
+     * @param reference The reference of the stored body
+     * @param registry The transaction synchronization registry, or null
+     * outside the application server
+     */
+    static void deleteOnRollback(String reference, TransactionSynchronizationRegistry registry) {
+        if ((registry == null) || (registry.getTransactionKey() == null)) {
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    delete(reference);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a data source that streams a stored body
+     *
+     * @param reference The reference of the stored body
+     * @return The data source of the body
+     * @throws IOException If the body does not exist in the store
+     */
+    public static DataSource getDataSource(String reference) throws IOException {
+        Path file = getFile(reference);
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchFileException(file.toString(), null, "The email body " + reference + " does not exist");
+        }
+        return new DataSource() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return Files.newInputStream(file);
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                throw new IOException("The email body " + reference + " is read only");
+            }
+
+            @Override
+            public String getContentType() {
+                return CONTENT_TYPE;
+            }
+
+            @Override
+            public String getName() {
+                return reference;
+            }
+        };
+    }
+
+    /**
+     * Delete a stored body
+     *
+     * @param reference The reference of the stored body
+     */
+    public static void delete(String reference) {
+        try {
+            Files.deleteIfExists(getFile(reference));
+        } catch (IOException | IllegalArgumentException ex) {
+            log.warning("The email body " + reference + " could not be deleted: " + ex.getMessage());
+        }
+    }
+
+    private static Path getFile(String reference) {
+        // Only accept UUIDs, so that a reference cannot point outside the store
+        return DIRECTORY.resolve(UUID.fromString(reference).toString());
+    }
+
+    private static TransactionSynchronizationRegistry getTransactionSynchronizationRegistry() {
+        try {
+            return (TransactionSynchronizationRegistry) new InitialContext().lookup(TRANSACTION_SYNCHRONIZATION_REGISTRY);
+        } catch (NamingException ex) {
+            return null;
+        }
+    }
+
+    private static Path getDirectory(String directory) {
+        if (!directory.isEmpty()) {
+            return Paths.get(directory);
+        }
+        return Paths.get(System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir")), "email_bodies");
+    }
+}
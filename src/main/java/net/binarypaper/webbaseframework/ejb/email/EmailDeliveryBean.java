@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import net.binarypaper.webbaseframework.entity.EmailDelivery;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * An EJB Singleton Session Bean that records the delivery status of queued
+ * email messages in the EMAIL_DELIVERY table.
+ * <p>
+ * Sent email messages are recorded in a new transaction, so that a rollback
+ * and redelivery of the batch they were sent in does not send them again. The
+ * tracking ids of the most recently sent email messages are also kept in
+ * memory once that transaction has committed, so most duplicates are skipped
+ * without a database lookup.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class EmailDeliveryBean {
+
+    private static final int SENT_CACHE_SIZE = ApplicationSettings.getInt("mail.delivery.sent_cache_size");
+    private static final int MAX_REASON_LENGTH = 1000;
+
+    @PersistenceContext(unitName = "WebBaseFrameworkPU")
+    private EntityManager em;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    private final Set<String> sentTrackingIds = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SENT_CACHE_SIZE;
+        }
+    }));
+
+    /**
+     * Record that an email message was queued
+     *
+     * @param emailMessage The email message
+     */
+    public void queued(EmailMessage emailMessage) {
+        if (emailMessage.getTrackingId() != null) {
+            em.persist(createDelivery(emailMessage));
+        }
+    }
+
+    /**
+     * Returns the tracking ids of the email messages that were already sent
+     *
+     * @param trackingIds The tracking ids to look up
+     * @return The tracking ids that were sent
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public Set<String> findSent(Collection<String> trackingIds) {
+        Set<String> sent = new HashSet<>();
+        Set<String> lookup = new HashSet<>();
+        for (String trackingId : trackingIds) {
+            if (sentTrackingIds.contains(trackingId)) {
+                sent.add(trackingId);
+            } else {
+                lookup.add(trackingId);
+            }
+        }
+        if (!lookup.isEmpty()) {
+            sent.addAll(em.createNamedQuery("EmailDelivery.findSent", String.class)
+              .setParameter("trackingIds", lookup)
+              .setParameter("status", EmailDelivery.SENT)
+              .getResultList());
+        }
+        return sent;
+    }
+
+    /**
+     * Record that email messages were sent, in a new transaction that is not
+     * rolled back with the batch they were sent in
+     *
+     * @param emailMessages The sent email messages
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void sent(List<EmailMessage> emailMessages) {
+        Date now = new Date();
+        List<String> trackingIds = new ArrayList<>();
+        for (EmailMessage emailMessage : emailMessages) {
+            if (emailMessage.getTrackingId() == null) {
+                continue;
+            }
+            trackingIds.add(emailMessage.getTrackingId());
+            EmailDelivery delivery = findOrCreate(emailMessage);
+            delivery.setStatus(EmailDelivery.SENT);
+            delivery.setSentAt(now);
+            delivery.setUpdatedAt(now);
+        }
+        if (!trackingIds.isEmpty()) {
+            transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    // Only skip the email messages that are recorded as sent
+                    if (status == Status.STATUS_COMMITTED) {
+                        sentTrackingIds.addAll(trackingIds);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Record a failed attempt to send an email message
+     *
+     * @param emailMessage The email message
+     * @param attempts The number of failed attempts
+     * @param reason The reason of the failure
+     * @param retry true if the email message will be retried
+     */
+    public void failed(EmailMessage emailMessage, int attempts, String reason, boolean retry) {
+        if (emailMessage.getTrackingId() == null) {
+            return;
+        }
+        EmailDelivery delivery = findOrCreate(emailMessage);
+        delivery.setStatus(retry ? EmailDelivery.QUEUED : EmailDelivery.FAILED);
+        delivery.setAttempts(attempts);
+        if ((reason != null) && (reason.length() > MAX_REASON_LENGTH)) {
+            reason = reason.substring(0, MAX_REASON_LENGTH);
+        }
+        delivery.setFailureReason(reason);
+        delivery.setUpdatedAt(new Date());
+    }
+
+    /**
+     * Returns the delivery status of an email message
+     *
+     * @param trackingId The tracking id of the email message
+     * @return The delivery status, or null if the tracking id does not exist
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public EmailDelivery find(String trackingId) {
+        return em.find(EmailDelivery.class, trackingId);
+    }
+
+    private EmailDelivery findOrCreate(EmailMessage emailMessage) {
+        EmailDelivery delivery = em.find(EmailDelivery.class, emailMessage.getTrackingId());
+        if (delivery == null) {
+            // The email message was queued before the delivery ledger existed
+            delivery = createDelivery(emailMessage);
+            em.persist(delivery);
+        }
+        return delivery;
+    }
+
+    private static EmailDelivery createDelivery(EmailMessage emailMessage) {
+        Date now = new Date();
+        EmailDelivery delivery = new EmailDelivery();
+        delivery.setTrackingId(emailMessage.getTrackingId());
+        delivery.setUserName(emailMessage.getUserName());
+        delivery.setToAddress(emailMessage.getToAddress());
+        delivery.setSubject(emailMessage.getSubject());
+        delivery.setStatus(EmailDelivery.QUEUED);
+        delivery.setQueuedAt(now);
+        delivery.setUpdatedAt(now);
+        return delivery;
+    }
+}
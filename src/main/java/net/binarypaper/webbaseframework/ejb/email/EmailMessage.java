@@ -37,4 +37,43 @@ public class EmailMessage implements Serializable {
 
     private String body;
 
+    /**
+     * The plain text alternative of the body, sent together with the body as a
+     * multipart/alternative email
+     */
+    private String textBody;
+
+    /**
+     * The reference of the body in the EmailBodyStore when the body is too
+     * large to be queued with the email message
+     */
+    private String bodyReference;
+
+    /**
+     * The tracking id of the email message, generated when it is queued
+     */
+    private String trackingId;
+
+    /**
+     * The name of the template the body is rendered with by the consumer of
+     * the email queue, when the body was not rendered before it was queued
+     */
+    private String templateName;
+
+    /**
+     * The content type of the input data of the template
+     */
+    private String contentType;
+
+    /**
+     * The input data of the template
+     */
+    private String data;
+
+    /**
+     * true if the consumer of the email queue renders both the sibling .html
+     * and .txt templates of the template name
+     */
+    private boolean multipart;
+
 }
@@ -15,23 +15,45 @@
  */
 package net.binarypaper.webbaseframework.ejb.email;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.activation.DataHandler;
 import javax.annotation.Resource;
 import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
 import javax.ejb.MessageDrivenContext;
+import javax.inject.Inject;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.ObjectMessage;
+import javax.jms.Queue;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
 import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.ejb.render.AlternativeDocuments;
+import net.binarypaper.webbaseframework.ejb.render.FreeMarkerRenderBean;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+import net.binarypaper.webbaseframework.rest.BusinessLogicException;
 
 /**
+ * A Message Driven Bean that sends the email messages of the email queue.
+ * <p>
+ * Every delivered message starts a batch of the messages received from the
+ * queue within the batch wait time, which is sent over a single pooled SMTP
+ * connection in one transaction. Failed messages are queued again with an
+ * exponential backoff until they are sent to the email dead letter queue.
  *
  * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
  */
@@ -39,35 +61,351 @@ import lombok.extern.java.Log;
 @MessageDriven(activationConfig = {
     @ActivationConfigProperty(propertyName = "destinationLookup", propertyValue = "java:/jms/queue/EmailQueue"),
     @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue")
+    // The maxSession is set with the mail.dispatcher.max_session system property in jboss-ejb3.xml
 })
 // Lombok annotations
 @Log
 public class EmailMessageBean implements MessageListener {
 
+    /**
+     * The JMS property that holds the number of times sending the email
+     * message has failed
+     */
+    public static final String ATTEMPTS_PROPERTY = "EmailAttempts";
+
+    /**
+     * The JMS property of a dead lettered email message that holds the reason
+     * it could not be sent
+     */
+    public static final String FAILURE_REASON_PROPERTY = "EmailFailureReason";
+
+    private static final int BATCH_SIZE = ApplicationSettings.getInt("mail.batch.size");
+    // The batch is received and sent within the transaction timeout of the delivered message
+    private static final long MAX_BATCH_WAIT = 1000;
+    private static final long BATCH_WAIT = Math.min(ApplicationSettings.getLong("mail.batch.wait_ms"), MAX_BATCH_WAIT);
+    private static final EmailRetryPolicy RETRY_POLICY = new EmailRetryPolicy(
+      ApplicationSettings.getLong("mail.retry.initial_delay_ms"),
+      ApplicationSettings.getInt("mail.retry.multiplier"),
+      ApplicationSettings.getLong("mail.retry.max_delay_ms"),
+      ApplicationSettings.getInt("mail.batch.max_attempts"));
+    private static final String[] SENDER_ADDRESSES = ApplicationSettings.getString("mail.sender.addresses").split("\\s*,\\s*");
+
     @Resource
     private MessageDrivenContext mdc;
 
     @Resource(mappedName = "java:jboss/mail/Default")
     private Session mailSession;
 
+    @Resource(mappedName = "java:/jms/queue/EmailQueue")
+    private Queue emailQueue;
+
+    @Resource(mappedName = "java:/jms/queue/EmailDLQ")
+    private Queue emailDeadLetterQueue;
+
+    @Inject
+    private JMSContext jmsContext;
+
+    @EJB
+    private SmtpTransportPoolBean smtpTransportPoolBean;
+
+    @EJB
+    private FreeMarkerRenderBean freeMarkerRenderBean;
+
+    @EJB
+    private EmailDeliveryBean emailDeliveryBean;
+
     @Override
     public void onMessage(Message message) {
-        ObjectMessage objectMessage;
+        List<Message> batch = receiveBatch(message);
+        List<EmailMessage> receivedMessages = new ArrayList<>();
+        List<Integer> receivedAttempts = new ArrayList<>();
+        List<String> trackingIds = new ArrayList<>();
+        List<EmailMessage> emailMessages = new ArrayList<>();
+        List<Integer> attempts = new ArrayList<>();
+        List<MimeMessage> mailMessages = new ArrayList<>();
         try {
-            if (message instanceof ObjectMessage) {
-                objectMessage = (ObjectMessage) message;
-                EmailMessage emailMessage = (EmailMessage) objectMessage.getObject();
-                MimeMessage mailMessage = new MimeMessage(mailSession);
-                mailMessage.setFrom(new InternetAddress("admin@test.com"));
-                mailMessage.setRecipients(RecipientType.TO, InternetAddress.parse(emailMessage.getToAddress()));
-                mailMessage.setSubject(emailMessage.getSubject());
-                mailMessage.setText(emailMessage.getBody(), "utf-8", "html");
-                Transport.send(mailMessage);
+            for (Message received : batch) {
+                EmailMessage emailMessage = readMessage(received);
+                if (emailMessage == null) {
+                    log.warning("The JMS message " + received.getJMSMessageID() + " is not an email message");
+                } else {
+                    receivedMessages.add(emailMessage);
+                    receivedAttempts.add(received.propertyExists(ATTEMPTS_PROPERTY) ? received.getIntProperty(ATTEMPTS_PROPERTY) : 0);
+                    if (emailMessage.getTrackingId() != null) {
+                        trackingIds.add(emailMessage.getTrackingId());
+                    }
+                }
+            }
+            long pause = smtpTransportPoolBean.getCircuitBreaker().getPause();
+            if (pause > 0) {
+                // Sending is paused while the SMTP server is unhealthy
+                log.info("Sending is paused, " + receivedMessages.size() + " email messages are queued again for " + pause + "ms");
+                for (int i = 0; i < receivedMessages.size(); i++) {
+                    requeue(receivedMessages.get(i), receivedAttempts.get(i), pause);
+                }
+                return;
+            }
+            Set<String> sent = trackingIds.isEmpty() ? Collections.emptySet() : emailDeliveryBean.findSent(trackingIds);
+            for (int i = 0; i < receivedMessages.size(); i++) {
+                EmailMessage emailMessage = receivedMessages.get(i);
+                if (sent.contains(emailMessage.getTrackingId())) {
+                    log.info("The email message " + emailMessage.getTrackingId() + " was already sent");
+                    deleteBody(emailMessage);
+                    continue;
+                }
+                MimeMessage mailMessage;
+                try {
+                    long wait = smtpTransportPoolBean.getRateLimiter().acquire(EmailRateLimiter.getDomains(emailMessage.getToAddress()));
+                    if (wait > 0) {
+                        // The recipient domain is sent to at its rate limit
+                        requeue(emailMessage, receivedAttempts.get(i), wait);
+                        continue;
+                    }
+                    mailMessage = createMailMessage(emailMessage, receivedAttempts.get(i));
+                } catch (MessagingException ex) {
+                    // An invalid message would fail every attempt
+                    log.severe("The email message to " + emailMessage.getToAddress() + " is invalid: " + ex.getMessage());
+                    deadLetter(emailMessage, receivedAttempts.get(i) + 1, ex.getMessage());
+                    continue;
+                }
+                if (mailMessage != null) {
+                    emailMessages.add(emailMessage);
+                    attempts.add(receivedAttempts.get(i));
+                    mailMessages.add(mailMessage);
+                }
+            }
+            if (mailMessages.isEmpty()) {
+                return;
+            }
+            List<MessagingException> failures;
+            try {
+                failures = smtpTransportPoolBean.send(mailSession, mailMessages);
+            } catch (MessagingException ex) {
+                failures = Collections.nCopies(mailMessages.size(), ex);
+            }
+            if (!smtpTransportPoolBean.getCircuitBreaker().recordBatch(failures)) {
+                log.severe("A batch of " + mailMessages.size() + " email messages could not be sent: " + failures.get(0).getMessage());
             }
-        } catch (JMSException | MessagingException ex) {
+            List<EmailMessage> sentMessages = new ArrayList<>();
+            for (int i = 0; i < failures.size(); i++) {
+                if (failures.get(i) == null) {
+                    sentMessages.add(emailMessages.get(i));
+                }
+            }
+            recordSent(sentMessages);
+            for (int i = 0; i < failures.size(); i++) {
+                if (failures.get(i) == null) {
+                    deleteBody(emailMessages.get(i));
+                } else {
+                    retry(emailMessages.get(i), attempts.get(i) + 1, failures.get(i));
+                }
+            }
+        } catch (JMSException ex) {
+            // The broker redelivers the batch after its redelivery delay
             log.severe(ex.getMessage());
             mdc.setRollbackOnly();
         }
     }
 
+    /**
+     * Receive the messages of a batch in the transaction of the delivered
+     * message
+     *
+     * @param message The delivered message
+     * @return The messages of the batch
+     */
+    private List<Message> receiveBatch(Message message) {
+        List<Message> batch = new ArrayList<>();
+        batch.add(message);
+        if (BATCH_SIZE <= 1) {
+            return batch;
+        }
+        long deadline = System.currentTimeMillis() + BATCH_WAIT;
+        // The injected context belongs to the transaction of the delivered
+        // message, so the received messages are rolled back with it
+        try (JMSConsumer consumer = jmsContext.createConsumer(emailQueue)) {
+            while (batch.size() < BATCH_SIZE) {
+                long remaining = deadline - System.currentTimeMillis();
+                Message next = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        }
+        return batch;
+    }
+
+    private EmailMessage readMessage(Message message) {
+        try {
+            return EmailMessageCodec.readMessage(message);
+        } catch (JMSException ex) {
+            // A message that cannot be read would fail every redelivery of the batch
+            log.severe("The email message could not be read: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private void retry(EmailMessage emailMessage, int attempts, MessagingException failure) {
+        if (EmailRetryPolicy.isPermanent(failure)) {
+            // The email message would be rejected on every attempt
+            log.severe("The email message to " + emailMessage.getToAddress() + " was rejected: " + failure.getMessage());
+            deadLetter(emailMessage, attempts, failure.getMessage());
+            return;
+        }
+        if (RETRY_POLICY.isExhausted(attempts)) {
+            log.severe("The email message to " + emailMessage.getToAddress() + " could not be sent after "
+              + attempts + " attempts: " + failure.getMessage());
+            deadLetter(emailMessage, attempts, failure.getMessage());
+            return;
+        }
+        long delay = RETRY_POLICY.getDelay(attempts);
+        log.warning("The email message to " + emailMessage.getToAddress() + " will be retried in " + delay + "ms: " + failure.getMessage());
+        if (requeue(emailMessage, attempts, delay)) {
+            emailDeliveryBean.failed(emailMessage, attempts, failure.getMessage(), true);
+        }
+    }
+
+    /**
+     * Send an email message to the email queue again
+     *
+     * @param emailMessage The email message
+     * @param attempts The number of failed attempts
+     * @param delay The milliseconds before the email message is delivered
+     * @return true if the email message was queued
+     */
+    private boolean requeue(EmailMessage emailMessage, int attempts, long delay) {
+        try {
+            EmailBodyStore.checkIn(emailMessage);
+        } catch (IOException ex) {
+            log.severe("The email message to " + emailMessage.getToAddress() + " could not be queued again: " + ex.getMessage());
+            deadLetter(emailMessage, attempts, "The email body could not be stored: " + ex.getMessage());
+            return false;
+        }
+        jmsContext.createProducer()
+          .setProperty(ATTEMPTS_PROPERTY, attempts)
+          .setDeliveryDelay(delay)
+          .send(emailQueue, EmailMessageCodec.createMessage(jmsContext, emailMessage));
+        return true;
+    }
+
+    /**
+     * Send an email message that will not be retried to the email dead letter
+     * queue. A stored body is kept, so that the message can be moved back to
+     * the email queue.
+     *
+     * @param emailMessage The email message
+     * @param attempts The number of failed attempts
+     * @param reason The reason the email message could not be sent
+     */
+    private void deadLetter(EmailMessage emailMessage, int attempts, String reason) {
+        emailDeliveryBean.failed(emailMessage, attempts, reason, false);
+        jmsContext.createProducer()
+          .setProperty(ATTEMPTS_PROPERTY, attempts)
+          .setProperty(FAILURE_REASON_PROPERTY, reason)
+          .send(emailDeadLetterQueue, EmailMessageCodec.createMessage(jmsContext, emailMessage));
+    }
+
+    /**
+     * Create the MIME message of an email message
+     *
+     * @param emailMessage The email message
+     * @param attempts The number of failed attempts to send the email message
+     * @return The MIME message, or null if the body of the email message cannot
+     * be rendered or the stored body does not exist
+     * @throws MessagingException If the MIME message cannot be created
+     */
+    private MimeMessage createMailMessage(EmailMessage emailMessage, int attempts) throws MessagingException {
+        if ((emailMessage.getTemplateName() != null) && !renderBody(emailMessage, attempts)) {
+            return null;
+        }
+        MimeMessage mailMessage = new MimeMessage(mailSession);
+        mailMessage.setFrom(new InternetAddress(getSenderAddress(emailMessage)));
+        mailMessage.setRecipients(RecipientType.TO, InternetAddress.parse(emailMessage.getToAddress()));
+        mailMessage.setSubject(emailMessage.getSubject());
+        // A multipart email has a separate HTML part
+        MimeBodyPart htmlPart = emailMessage.getTextBody() == null ? null : new MimeBodyPart();
+        MimePart part = htmlPart == null ? mailMessage : htmlPart;
+        if (emailMessage.getBodyReference() == null) {
+            part.setText(emailMessage.getBody(), "utf-8", "html");
+        } else {
+            try {
+                part.setDataHandler(new DataHandler(EmailBodyStore.getDataSource(emailMessage.getBodyReference())));
+            } catch (IOException | IllegalArgumentException ex) {
+                log.severe("The email message to " + emailMessage.getToAddress() + " cannot be sent: " + ex.getMessage());
+                deadLetter(emailMessage, attempts + 1, "The stored email body could not be read: " + ex.getMessage());
+                return null;
+            }
+        }
+        if (htmlPart == null) {
+            return mailMessage;
+        }
+        // The preferred alternative is the last part
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setText(emailMessage.getTextBody(), "utf-8", "plain");
+        MimeMultipart multipart = new MimeMultipart("alternative");
+        multipart.addBodyPart(textPart);
+        multipart.addBodyPart(htmlPart);
+        mailMessage.setContent(multipart);
+        return mailMessage;
+    }
+
+    /**
+     * Render the body of an email message that was queued with a template
+     * name, so that a retry of the email message does not render it again
+     *
+     * @param emailMessage The email message
+     * @param attempts The number of failed attempts to send the email message
+     * @return true if the body was rendered
+     */
+    private boolean renderBody(EmailMessage emailMessage, int attempts) {
+        try {
+            if (emailMessage.isMultipart()) {
+                AlternativeDocuments documents = freeMarkerRenderBean.renderAlternatives(emailMessage.getTemplateName(), emailMessage.getContentType(), emailMessage.getData());
+                emailMessage.setBody(documents.getHtml());
+                emailMessage.setTextBody(documents.getText());
+            } else {
+                emailMessage.setBody(freeMarkerRenderBean.render(emailMessage.getTemplateName(), emailMessage.getContentType(), emailMessage.getData()));
+            }
+        } catch (BusinessLogicException ex) {
+            // Rendering again would fail the same way
+            log.severe("The email message " + emailMessage.getTrackingId() + " could not be rendered with template "
+              + emailMessage.getTemplateName() + ": error " + ex.getErrorCode() + " " + ex.getMessage());
+            deadLetter(emailMessage, attempts + 1, "The email body could not be rendered: error " + ex.getErrorCode());
+            return false;
+        }
+        emailMessage.setTemplateName(null);
+        emailMessage.setContentType(null);
+        emailMessage.setData(null);
+        emailMessage.setMultipart(false);
+        return true;
+    }
+
+    /**
+     * Returns the sender address of an email message, which is always the same
+     * for the retries of the email message
+     *
+     * @param emailMessage The email message
+     * @return The sender address
+     */
+    private static String getSenderAddress(EmailMessage emailMessage) {
+        String key = emailMessage.getTrackingId() != null ? emailMessage.getTrackingId() : emailMessage.getToAddress();
+        return SENDER_ADDRESSES[Math.floorMod(key.hashCode(), SENDER_ADDRESSES.length)];
+    }
+
+    private void recordSent(List<EmailMessage> sentMessages) {
+        try {
+            emailDeliveryBean.sent(sentMessages);
+        } catch (RuntimeException ex) {
+            // The email messages were sent, so the batch must not be rolled back
+            log.warning("The delivery of " + sentMessages.size() + " sent email messages could not be recorded: " + ex.getMessage());
+        }
+    }
+
+    private void deleteBody(EmailMessage emailMessage) {
+        if (emailMessage.getBodyReference() != null) {
+            EmailBodyStore.delete(emailMessage.getBodyReference());
+        }
+    }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.jms.BytesMessage;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * Converts email messages to and from the compact binary format of the JMS
+ * BytesMessages on the email queue.
+ * <p>
+ * The format starts with a version byte and a flags byte, followed by the user
+ * name, to address, subject, body, tracking id, template name, content type,
+ * data and text body as length prefixed UTF-8 strings. The body, data and text
+ * body are compressed with gzip when they are larger than the gzip threshold,
+ * and the body can be replaced by the reference of a body in the
+ * EmailBodyStore. Java serialized ObjectMessages sent by previous versions
+ * can still be read.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailMessageCodec {
+
+    private static final int GZIP_THRESHOLD = ApplicationSettings.getInt("mail.message.gzip_threshold");
+
+    private static final byte VERSION = 3;
+    private static final byte FLAG_GZIP_BODY = 1;
+    private static final byte FLAG_BODY_REFERENCE = 2;
+    private static final byte FLAG_GZIP_DATA = 4;
+    private static final byte FLAG_GZIP_TEXT_BODY = 8;
+    private static final byte FLAG_MULTIPART = 16;
+    private static final int NULL_LENGTH = -1;
+
+    private EmailMessageCodec() {
+    }
+
+    /**
+     * Create a JMS BytesMessage of an email message
+     *
+     * @param jmsContext The JMS context the message is created with
+     * @param emailMessage The email message
+     * @return The JMS message
+     * @throws JMSRuntimeException If the message cannot be created
+     */
+    public static BytesMessage createMessage(JMSContext jmsContext, EmailMessage emailMessage) {
+        BytesMessage message = jmsContext.createBytesMessage();
+        try {
+            message.writeBytes(encode(emailMessage, GZIP_THRESHOLD));
+        } catch (JMSException ex) {
+            throw new JMSRuntimeException(ex.getMessage(), ex.getErrorCode(), ex);
+        }
+        return message;
+    }
+
+    /**
+     * Read the email message of a JMS message
+     *
+     * @param message A BytesMessage, or an ObjectMessage sent by a previous
+     * version
+     * @return The email message, or null if the message is not an email
+     * message
+     * @throws JMSException If the message cannot be read
+     */
+    public static EmailMessage readMessage(Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            return decode(message.getBody(byte[].class));
+        }
+        if (message instanceof ObjectMessage) {
+            Object object = ((ObjectMessage) message).getObject();
+            return object instanceof EmailMessage ? (EmailMessage) object : null;
+        }
+        return null;
+    }
+
+    /**
+     * Encode an email message
+     *
+     * @param emailMessage The email message
+     * @param gzipThreshold The number of bytes from which the body, data and
+     * text body are compressed with gzip
+     * @return The encoded email message
+     */
+    public static byte[] encode(EmailMessage emailMessage, int gzipThreshold) {
+        try {
+            boolean bodyReference = emailMessage.getBodyReference() != null;
+            byte[] body = toBytes(bodyReference ? emailMessage.getBodyReference() : emailMessage.getBody());
+            boolean gzipBody = !bodyReference && (body != null) && (body.length > gzipThreshold);
+            if (gzipBody) {
+                body = compress(body);
+            }
+            byte[] data = toBytes(emailMessage.getData());
+            boolean gzipData = (data != null) && (data.length > gzipThreshold);
+            if (gzipData) {
+                data = compress(data);
+            }
+            byte[] textBody = toBytes(emailMessage.getTextBody());
+            boolean gzipTextBody = (textBody != null) && (textBody.length > gzipThreshold);
+            if (gzipTextBody) {
+                textBody = compress(textBody);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + (body == null ? 0 : body.length)
+              + (data == null ? 0 : data.length) + (textBody == null ? 0 : textBody.length));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeByte((gzipBody ? FLAG_GZIP_BODY : 0) | (bodyReference ? FLAG_BODY_REFERENCE : 0) | (gzipData ? FLAG_GZIP_DATA : 0)
+              | (gzipTextBody ? FLAG_GZIP_TEXT_BODY : 0) | (emailMessage.isMultipart() ? FLAG_MULTIPART : 0));
+            writeBytes(out, toBytes(emailMessage.getUserName()));
+            writeBytes(out, toBytes(emailMessage.getToAddress()));
+            writeBytes(out, toBytes(emailMessage.getSubject()));
+            writeBytes(out, body);
+            writeBytes(out, toBytes(emailMessage.getTrackingId()));
+            writeBytes(out, toBytes(emailMessage.getTemplateName()));
+            writeBytes(out, toBytes(emailMessage.getContentType()));
+            writeBytes(out, data);
+            writeBytes(out, textBody);
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("The email message could not be encoded", ex);
+        }
+    }
+
+    /**
+     * Decode an email message
+     *
+     * @param bytes The encoded email message
+     * @return The email message
+     * @throws JMSException If the bytes are not an encoded email message
+     */
+    public static EmailMessage decode(byte[] bytes) throws JMSException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new JMSException("Unsupported email message format version " + version);
+            }
+            byte flags = in.readByte();
+            EmailMessage emailMessage = new EmailMessage();
+            emailMessage.setUserName(toString(readBytes(in)));
+            emailMessage.setToAddress(toString(readBytes(in)));
+            emailMessage.setSubject(toString(readBytes(in)));
+            byte[] body = readBytes(in);
+            if ((body != null) && ((flags & FLAG_GZIP_BODY) != 0)) {
+                body = decompress(body);
+            }
+            if ((flags & FLAG_BODY_REFERENCE) != 0) {
+                emailMessage.setBodyReference(toString(body));
+            } else {
+                emailMessage.setBody(toString(body));
+            }
+            emailMessage.setTrackingId(toString(readBytes(in)));
+            emailMessage.setTemplateName(toString(readBytes(in)));
+            emailMessage.setContentType(toString(readBytes(in)));
+            byte[] data = readBytes(in);
+            if ((data != null) && ((flags & FLAG_GZIP_DATA) != 0)) {
+                data = decompress(data);
+            }
+            emailMessage.setData(toString(data));
+            byte[] textBody = readBytes(in);
+            if ((textBody != null) && ((flags & FLAG_GZIP_TEXT_BODY) != 0)) {
+                textBody = decompress(textBody);
+            }
+            emailMessage.setTextBody(toString(textBody));
+            emailMessage.setMultipart((flags & FLAG_MULTIPART) != 0);
+            return emailMessage;
+        } catch (IOException ex) {
+            JMSException jmsException = new JMSException("The email message could not be decoded: " + ex.getMessage());
+            jmsException.setLinkedException(ex);
+            throw jmsException;
+        }
+    }
+
+    private static byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] bytes) throws IOException {
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream uncompressed = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            for (int read = gzip.read(buffer); read >= 0; read = gzip.read(buffer)) {
+                uncompressed.write(buffer, 0, read);
+            }
+            return uncompressed.toByteArray();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String toString(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
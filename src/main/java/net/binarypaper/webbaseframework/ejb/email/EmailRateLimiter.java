@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Limits the rate email messages are sent to every recipient domain with a
+ * token bucket per domain.
+ * <p>
+ * Every bucket holds up to the burst size of tokens and is refilled at the
+ * rate of the domain. An email message to several domains takes a token from
+ * the bucket of each of them, or from none of them when one of the buckets is
+ * empty. Buckets are only kept for the domains that have a rate limit, and a
+ * bucket that has been refilled to the burst size is removed, as it is the
+ * same as a new bucket.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailRateLimiter {
+
+    private static final long EVICT_INTERVAL = 60000;
+
+    private final int burst;
+    private final ToIntFunction<String> rates;
+    private final LongSupplier clock;
+    private final Map<String, TokenBucket> buckets = new HashMap<>();
+    private long evicted;
+
+    /**
+     * Create a rate limiter
+     *
+     * @param burst The number of email messages that can be sent to a domain
+     * at once
+     * @param rates Returns the number of email messages per minute of a
+     * domain, or 0 for no limit
+     */
+    public EmailRateLimiter(int burst, ToIntFunction<String> rates) {
+        this(burst, rates, System::currentTimeMillis);
+    }
+
+    EmailRateLimiter(int burst, ToIntFunction<String> rates, LongSupplier clock) {
+        this.burst = Math.max(burst, 1);
+        this.rates = rates;
+        this.clock = clock;
+    }
+
+    /**
+     * Take a token for an email message to the specified domains
+     *
+     * @param domains The recipient domains of the email message
+     * @return 0 if the email message may be sent now, otherwise the
+     * milliseconds to wait
+     */
+    public synchronized long acquire(Collection<String> domains) {
+        long now = clock.getAsLong();
+        evictFullBuckets(now);
+        List<TokenBucket> limited = new ArrayList<>(domains.size());
+        long wait = 0;
+        for (String domain : domains) {
+            TokenBucket bucket = buckets.get(domain);
+            if (bucket == null) {
+                int perMinute = rates.applyAsInt(domain);
+                if (perMinute <= 0) {
+                    continue;
+                }
+                bucket = new TokenBucket(perMinute, burst, now);
+                buckets.put(domain, bucket);
+            }
+            limited.add(bucket);
+            wait = Math.max(wait, bucket.getWait(now));
+        }
+        if (wait == 0) {
+            limited.forEach(TokenBucket::take);
+        }
+        return wait;
+    }
+
+    /**
+     * Returns the number of domains that have a token bucket
+     *
+     * @return The number of token buckets
+     */
+    synchronized int getBucketCount() {
+        return buckets.size();
+    }
+
+    private void evictFullBuckets(long now) {
+        if (now - evicted < EVICT_INTERVAL) {
+            return;
+        }
+        evicted = now;
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    /**
+     * Returns the recipient domains of an email message
+     *
+     * @param toAddress The comma separated list of email addresses
+     * @return The lower case domains of the addresses
+     * @throws AddressException If the addresses are invalid
+     */
+    public static Set<String> getDomains(String toAddress) throws AddressException {
+        Set<String> domains = new LinkedHashSet<>();
+        for (InternetAddress address : InternetAddress.parse(toAddress)) {
+            String email = address.getAddress();
+            domains.add(email.substring(email.lastIndexOf('@') + 1).toLowerCase(Locale.ENGLISH));
+        }
+        return domains;
+    }
+
+    private static class TokenBucket {
+
+        private final double capacity;
+        private final double tokensPerMillisecond;
+        private double tokens;
+        private long updated;
+
+        TokenBucket(int perMinute, int capacity, long now) {
+            this.capacity = capacity;
+            tokensPerMillisecond = perMinute / 60000.0;
+            tokens = capacity;
+            updated = now;
+        }
+
+        long getWait(long now) {
+            tokens = Math.min(capacity, tokens + (now - updated) * tokensPerMillisecond);
+            updated = now;
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMillisecond);
+        }
+
+        boolean isFull(long now) {
+            return tokens + (now - updated) * tokensPerMillisecond >= capacity;
+        }
+
+        void take() {
+            tokens--;
+        }
+    }
+}
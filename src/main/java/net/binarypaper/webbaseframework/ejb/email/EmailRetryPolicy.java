@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.mail.MessagingException;
+
+/**
+ * The exponential backoff policy of email messages that could not be sent.
+ * <p>
+ * The first retry is delayed by the initial delay, and every following retry
+ * by the previous delay times the multiplier, up to the maximum delay.
+ * Failures the SMTP server reports with a permanent (5xx) reply code are not
+ * retried.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailRetryPolicy {
+
+    private final long initialDelay;
+    private final int multiplier;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    /**
+     * Create a retry policy
+     *
+     * @param initialDelay The milliseconds before the first retry
+     * @param multiplier The factor the delay is multiplied with after every
+     * failed attempt
+     * @param maxDelay The maximum milliseconds between retries
+     * @param maxAttempts The number of times sending is attempted
+     */
+    public EmailRetryPolicy(long initialDelay, int multiplier, long maxDelay, int maxAttempts) {
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns true if an email message must not be retried anymore
+     *
+     * @param attempts The number of failed attempts
+     * @return true if the maximum number of attempts is reached
+     */
+    public boolean isExhausted(int attempts) {
+        return attempts >= maxAttempts;
+    }
+
+    /**
+     * Returns the delay before the next attempt
+     *
+     * @param attempts The number of failed attempts
+     * @return The delay in milliseconds
+     */
+    public long getDelay(int attempts) {
+        long delay = initialDelay;
+        for (int i = 1; (i < attempts) && (multiplier > 1) && (delay < maxDelay); i++) {
+            delay *= multiplier;
+        }
+        return Math.min(delay, maxDelay);
+    }
+
+    /**
+     * Returns true if sending an email message failed permanently. The SMTP
+     * reply codes of the failure and its next exceptions are read, and the
+     * failure is permanent if there is at least one and all of them are 5xx.
+     * Failures without a reply code, such as connection failures, and 4xx
+     * replies such as 421, 450, 451 and 452 are transient.
+     *
+     * @param failure The failure of the email message
+     * @return true if the email message must not be retried
+     */
+    public static boolean isPermanent(MessagingException failure) {
+        List<Integer> returnCodes = new ArrayList<>();
+        for (Exception ex = failure; ex instanceof MessagingException; ex = ((MessagingException) ex).getNextException()) {
+            if (ex instanceof SMTPSendFailedException) {
+                returnCodes.add(((SMTPSendFailedException) ex).getReturnCode());
+            } else if (ex instanceof SMTPAddressFailedException) {
+                returnCodes.add(((SMTPAddressFailedException) ex).getReturnCode());
+            }
+        }
+        return !returnCodes.isEmpty() && returnCodes.stream().allMatch(returnCode -> returnCode >= 500);
+    }
+}
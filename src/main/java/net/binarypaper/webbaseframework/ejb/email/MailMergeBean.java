@@ -0,0 +1,377 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.Template;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Queue;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.ejb.render.FreeMarkerRenderBean;
+import net.binarypaper.webbaseframework.ejb.render.JsonDataModel;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+import net.binarypaper.webbaseframework.rest.BusinessLogicException;
+import net.binarypaper.webbaseframework.rest.BusinessLogicExceptionMapper;
+import net.binarypaper.webbaseframework.rest.ResponseError;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * An EJB Singleton Session Bean that runs mail merge jobs.
+ * <p>
+ * A mail merge job reads the recipient records of a spooled input file one at
+ * a time on a thread of its own, renders one email message for every record
+ * with the same template on the managed executor, and queues the email
+ * messages on the email queue in batches of one transaction each. At most the configured number of records
+ * are rendered in parallel, so the memory used does not depend on the number
+ * of records. Every record must have an email_to field with the email
+ * addresses of the recipient. The progress of the jobs is only kept in the
+ * memory of the node that runs them.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+// Lombok annotations
+@Log
+public class MailMergeBean {
+
+    private static final String EMAIL_TO_FIELD = "email_to";
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String TEXT_CSV = "text/csv";
+
+    private static final int PARALLELISM = Math.max(1, ApplicationSettings.getInt("mail.merge.parallelism"));
+    private static final int BATCH_SIZE = Math.max(1, ApplicationSettings.getInt("mail.merge.batch_size"));
+    private static final int MAX_ERRORS = ApplicationSettings.getInt("mail.merge.max_errors");
+    private static final int MAX_JOBS = ApplicationSettings.getInt("mail.merge.max_jobs");
+
+    @EJB
+    private FreeMarkerRenderBean freeMarkerRenderBean;
+
+    @EJB
+    private EmailDeliveryBean emailDeliveryBean;
+
+    @Inject
+    private JMSContext jmsContext;
+
+    @Resource(mappedName = "java:/jms/queue/EmailQueue")
+    private Queue emailQueue;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    @Resource
+    private SessionContext sessionContext;
+
+    private final Map<String, MailMergeJob> jobs = new LinkedHashMap<String, MailMergeJob>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MailMergeJob> eldest) {
+            if (size() > MAX_JOBS) {
+                // Running jobs are kept to report their progress, so the oldest finished job is removed
+                values().stream()
+                  .filter(job -> !MailMergeJob.RUNNING.equals(job.getStatus()))
+                  .findFirst()
+                  .ifPresent(job -> remove(job.getJobId()));
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Start a mail merge job
+     *
+     * @param template The template used to render the email messages
+     * @param contentType The content type of the input file, which is a JSON
+     * array, newline delimited JSON or CSV with a header line
+     * @param emailSubject The email subject of the email messages
+     * @param userName The name of the user that started the job
+     * @param input The spooled input file, which is deleted when the job ends
+     * @return The progress of the job
+     */
+    public MailMergeJob start(Template template, String contentType, String emailSubject, String userName, Path input) {
+        MailMergeJob job = new MailMergeJob();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setTemplateName(template.getName());
+        job.setStatus(MailMergeJob.RUNNING);
+        job.setStartedAt(new Date());
+        synchronized (jobs) {
+            jobs.put(job.getJobId(), job);
+        }
+        MailMergeBean self = sessionContext.getBusinessObject(MailMergeBean.class);
+        // The job waits for its render tasks, so it does not run on the managed executor
+        threadFactory.newThread(() -> run(self, job, template, contentType, emailSubject, userName, input)).start();
+        return getJob(job.getJobId());
+    }
+
+    /**
+     * Returns the progress of a mail merge job
+     *
+     * @param jobId The id of the job
+     * @return A copy of the progress of the job, or null if the job does not
+     * exist
+     */
+    public MailMergeJob getJob(String jobId) {
+        MailMergeJob job;
+        synchronized (jobs) {
+            job = jobs.get(jobId);
+        }
+        if (job == null) {
+            return null;
+        }
+        synchronized (job) {
+            MailMergeJob copy = new MailMergeJob();
+            copy.setJobId(job.getJobId());
+            copy.setTemplateName(job.getTemplateName());
+            copy.setStatus(job.getStatus());
+            copy.setRecords(job.getRecords());
+            copy.setQueued(job.getQueued());
+            copy.setFailed(job.getFailed());
+            copy.setErrors(new ArrayList<>(job.getErrors()));
+            copy.setStartedAt(job.getStartedAt());
+            copy.setCompletedAt(job.getCompletedAt());
+            return copy;
+        }
+    }
+
+    /**
+     * Queue a batch of email messages in one transaction. Large bodies are
+     * moved to the claim check store in the same transaction, so that they are
+     * deleted again if it is rolled back.
+     *
+     * @param emailMessages The email messages
+     */
+    public void queue(List<EmailMessage> emailMessages) {
+        JMSProducer producer = jmsContext.createProducer();
+        for (EmailMessage emailMessage : emailMessages) {
+            try {
+                EmailBodyStore.checkIn(emailMessage);
+            } catch (IOException ex) {
+                throw new EJBException("The email body could not be stored: " + ex.getMessage(), ex);
+            }
+            emailDeliveryBean.queued(emailMessage);
+            producer.send(emailQueue, EmailMessageCodec.createMessage(jmsContext, emailMessage));
+        }
+    }
+
+    private void run(MailMergeBean self, MailMergeJob job, Template template, String contentType, String emailSubject, String userName, Path input) {
+        Deque<Future<EmailMessage>> pending = new ArrayDeque<>();
+        List<EmailMessage> batch = new ArrayList<>();
+        String failure = null;
+        try {
+            try (RecordReader reader = createReader(input, contentType, template.getObjectWrapper())) {
+                int index = 0;
+                for (TemplateModel data = reader.next(); data != null; data = reader.next()) {
+                    synchronized (job) {
+                        job.setRecords(job.getRecords() + 1);
+                    }
+                    pending.add(executorService.submit(new RenderTask(template, emailSubject, userName, data)));
+                    collect(self, job, pending, PARALLELISM - 1, batch, index++ - pending.size() + 1);
+                }
+                collect(self, job, pending, 0, batch, index - pending.size());
+            } catch (IOException | TemplateModelException | IllegalStateException ex) {
+                // The rest of the input data cannot be read, but the records read so far are queued
+                failure = "The input data is invalid: " + ex.getMessage();
+                collect(self, job, pending, 0, batch, (int) job.getRecords() - pending.size());
+            }
+            if (!batch.isEmpty()) {
+                queue(self, job, batch);
+            }
+        } catch (RuntimeException ex) {
+            log.severe("The mail merge job " + job.getJobId() + " failed: " + ex.getMessage());
+            failure = "The email messages could not be queued: " + ex.getMessage();
+        } finally {
+            for (Future<EmailMessage> future : pending) {
+                future.cancel(true);
+            }
+            try {
+                Files.deleteIfExists(input);
+            } catch (IOException ex) {
+                log.warning("The mail merge input file " + input + " could not be deleted: " + ex.getMessage());
+            }
+        }
+        synchronized (job) {
+            if (failure != null) {
+                addError(job, failure);
+            }
+            job.setStatus(failure == null ? MailMergeJob.COMPLETED : MailMergeJob.FAILED);
+            job.setCompletedAt(new Date());
+        }
+    }
+
+    /**
+     * Wait for rendered email messages until at most the maximum number of
+     * records are pending, and queue every full batch
+     *
+     * @param index The index of the first pending record
+     */
+    private void collect(MailMergeBean self, MailMergeJob job, Deque<Future<EmailMessage>> pending, int maxPending, List<EmailMessage> batch, int index) {
+        while (pending.size() > maxPending) {
+            try {
+                batch.add(pending.remove().get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new EJBException("The mail merge job was interrupted", ex);
+            } catch (ExecutionException ex) {
+                synchronized (job) {
+                    job.setFailed(job.getFailed() + 1);
+                    addError(job, "Record " + (index + 1) + ": " + getErrorMessage(ex.getCause()));
+                }
+            }
+            index++;
+            if (batch.size() >= BATCH_SIZE) {
+                queue(self, job, batch);
+            }
+        }
+    }
+
+    private static void queue(MailMergeBean self, MailMergeJob job, List<EmailMessage> batch) {
+        self.queue(batch);
+        synchronized (job) {
+            job.setQueued(job.getQueued() + batch.size());
+        }
+        batch.clear();
+    }
+
+    private static void addError(MailMergeJob job, String error) {
+        if (job.getErrors().size() < MAX_ERRORS) {
+            job.getErrors().add(error);
+        }
+    }
+
+    private static String getErrorMessage(Throwable cause) {
+        if (cause instanceof BusinessLogicException) {
+            ResponseError error = (ResponseError) new BusinessLogicExceptionMapper().toResponse((BusinessLogicException) cause).getEntity();
+            return error.getErrorCode() + " " + error.getMessage();
+        }
+        return cause.toString();
+    }
+
+    private static RecordReader createReader(Path input, String contentType, ObjectWrapper objectWrapper) throws IOException {
+        InputStream in = Files.newInputStream(input);
+        MediaType mediaType = MediaType.valueOf(contentType);
+        if (mediaType.isCompatible(MediaType.valueOf(TEXT_CSV))) {
+            Iterator<CSVRecord> records = CSVFormat.EXCEL.withHeader().parse(new InputStreamReader(in, StandardCharsets.UTF_8)).iterator();
+            return new RecordReader() {
+                @Override
+                public TemplateModel next() throws TemplateModelException {
+                    return records.hasNext() ? objectWrapper.wrap(records.next().toMap()) : null;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+        JsonDataModel.BatchReader reader = JsonDataModel.createBatchReader(in, !mediaType.isCompatible(MediaType.valueOf(APPLICATION_NDJSON)), objectWrapper);
+        return new RecordReader() {
+            @Override
+            public TemplateModel next() throws IOException, TemplateModelException {
+                return reader.next();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    private interface RecordReader extends Closeable {
+
+        TemplateModel next() throws IOException, TemplateModelException;
+    }
+
+    private class RenderTask implements Callable<EmailMessage> {
+
+        private final Template template;
+        private final String emailSubject;
+        private final String userName;
+        private final TemplateModel data;
+
+        RenderTask(Template template, String emailSubject, String userName, TemplateModel data) {
+            this.template = template;
+            this.emailSubject = emailSubject;
+            this.userName = userName;
+            this.data = data;
+        }
+
+        @Override
+        public EmailMessage call() throws BusinessLogicException, IOException, TemplateModelException {
+            TemplateModel emailTo = data instanceof TemplateHashModel ? ((TemplateHashModel) data).get(EMAIL_TO_FIELD) : null;
+            if (!(emailTo instanceof TemplateScalarModel)) {
+                throw new BusinessLogicException("FMR16", Response.Status.BAD_REQUEST.getStatusCode());
+            }
+            Map<String, Object> templateData = new HashMap<>();
+            templateData.put("data", data);
+            StringWriter writer = new StringWriter();
+            freeMarkerRenderBean.process(template, templateData, writer);
+            EmailMessage emailMessage = new EmailMessage();
+            emailMessage.setTrackingId(UUID.randomUUID().toString());
+            emailMessage.setUserName(userName);
+            emailMessage.setToAddress(((TemplateScalarModel) emailTo).getAsString());
+            emailMessage.setSubject(emailSubject);
+            emailMessage.setBody(writer.toString());
+            return emailMessage;
+        }
+    }
+}
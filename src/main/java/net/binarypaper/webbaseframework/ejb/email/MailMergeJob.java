@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Class used to marshal the progress of a mail merge job as a JSON object for
+ * a REST response
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+public class MailMergeJob {
+
+    /**
+     * The records are being rendered and queued
+     */
+    public static final String RUNNING = "RUNNING";
+
+    /**
+     * All the records were read
+     */
+    public static final String COMPLETED = "COMPLETED";
+
+    /**
+     * The job stopped because the input data is invalid or the email messages
+     * could not be queued
+     */
+    public static final String FAILED = "FAILED";
+
+    // Jackson annotations
+    @JsonProperty("job_id")
+    // Swagger annotations
+    @ApiModelProperty(value = "The id of the mail merge job", example = "0f8fad5b-d9cb-469f-a165-70867728950e", readOnly = true)
+    private String jobId;
+
+    // Jackson annotations
+    @JsonProperty("template_name")
+    // Swagger annotations
+    @ApiModelProperty(value = "The name of the template file", example = "BasicJSON.html", readOnly = true)
+    private String templateName;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The status of the job, which is RUNNING, COMPLETED or FAILED", example = "RUNNING", readOnly = true)
+    private String status;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of recipient records read", example = "1000", readOnly = true)
+    private long records;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of email messages queued", example = "990", readOnly = true)
+    private long queued;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of recipient records that could not be rendered", example = "2", readOnly = true)
+    private long failed;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The first errors of the job", readOnly = true)
+    private List<String> errors = new ArrayList<>();
+
+    // Jackson annotations
+    @JsonProperty("started_at")
+    // Swagger annotations
+    @ApiModelProperty(value = "The date and time the job started", readOnly = true)
+    private Date startedAt;
+
+    // Jackson annotations
+    @JsonProperty("completed_at")
+    // Swagger annotations
+    @ApiModelProperty(value = "The date and time the job completed or failed", readOnly = true)
+    private Date completedAt;
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+import javax.mail.MessagingException;
+
+/**
+ * A circuit breaker that pauses sending email while the SMTP server is
+ * unhealthy.
+ * <p>
+ * The circuit opens when the failure threshold of consecutive batches could
+ * not be sent because of connection or transport failures, or transient
+ * (4xx) SMTP replies. Messages the SMTP server rejects permanently (5xx) are
+ * failures of the message, not of the server. While it is open no batches are sent, until the open time has
+ * passed. Then a single trial batch is sent: if it succeeds the circuit
+ * closes, and if it fails the circuit opens again.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class SmtpCircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openTime;
+    private final LongSupplier clock;
+
+    private int failures;
+    private long openUntil;
+    private boolean trial;
+
+    /**
+     * Create a circuit breaker
+     *
+     * @param failureThreshold The number of consecutive failed batches that
+     * opens the circuit
+     * @param openTime The milliseconds the circuit stays open
+     */
+    public SmtpCircuitBreaker(int failureThreshold, long openTime) {
+        this(failureThreshold, openTime, System::currentTimeMillis);
+    }
+
+    SmtpCircuitBreaker(int failureThreshold, long openTime, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the time until a batch may be sent. When the open time has
+     * passed, the caller that gets 0 sends the trial batch.
+     *
+     * @return 0 if a batch may be sent now, otherwise the milliseconds to wait
+     */
+    public synchronized long getPause() {
+        if (failures < failureThreshold) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        if (now < openUntil) {
+            return openUntil - now;
+        }
+        // Allow one trial batch, and another one if it never reports back
+        trial = true;
+        openUntil = now + openTime;
+        return 0;
+    }
+
+    /**
+     * Record the outcome of a batch. The batch failed if no message was sent
+     * and the SMTP server did not reject any message permanently.
+     *
+     * @param failures The failure of every message of the batch, or null for
+     * the messages that were sent
+     * @return true if the batch was recorded as a success
+     */
+    public boolean recordBatch(List<MessagingException> failures) {
+        for (MessagingException failure : failures) {
+            if ((failure == null) || EmailRetryPolicy.isPermanent(failure)) {
+                recordSuccess();
+                return true;
+            }
+        }
+        recordFailure();
+        return false;
+    }
+
+    /**
+     * Record that a batch was sent
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        trial = false;
+    }
+
+    /**
+     * Record that a batch could not be sent
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        if ((failures == failureThreshold) || trial) {
+            failures = Math.max(failures, failureThreshold);
+            trial = false;
+            openUntil = clock.getAsLong() + openTime;
+        }
+    }
+}
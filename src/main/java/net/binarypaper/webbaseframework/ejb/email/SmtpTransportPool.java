@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import lombok.extern.java.Log;
+
+/**
+ * A bounded pool of connected SMTP transports of a mail session.
+ * <p>
+ * Sending a message borrows a connected transport instead of opening,
+ * authenticating and closing a new SMTP connection for every message. A
+ * transport that has been idle for longer than the validation interval is
+ * validated with a NOOP command before it is used, and a transport that fails
+ * is closed and replaced by a new connection.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class SmtpTransportPool {
+
+    private final Session mailSession;
+    private final Semaphore permits;
+    private final long borrowTimeout;
+    private final long validateAfterIdle;
+    private final BlockingDeque<PooledTransport> idleTransports = new LinkedBlockingDeque<>();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Create a pool of SMTP transports
+     *
+     * @param mailSession The mail session the transports are created from
+     * @param maxSize The maximum number of connected transports
+     * @param borrowTimeout The milliseconds to wait for a transport when all
+     * the transports are in use
+     * @param validateAfterIdle The milliseconds a transport may be idle before
+     * it is validated with a NOOP command
+     */
+    public SmtpTransportPool(Session mailSession, int maxSize, long borrowTimeout, long validateAfterIdle) {
+        this.mailSession = mailSession;
+        this.permits = new Semaphore(maxSize, true);
+        this.borrowTimeout = borrowTimeout;
+        this.validateAfterIdle = validateAfterIdle;
+    }
+
+    /**
+     * Send a batch of messages over a single pooled transport. A message that
+     * fails does not stop the batch. If the connection fails, which happens
+     * when the SMTP server has closed a pooled connection, the message is sent
+     * once more and the remaining messages are sent with a new connection.
+     *
+     * @param messages The messages to send
+     * @return The failure of every message, in the order of the messages, or
+     * null for the messages that were sent
+     * @throws MessagingException If no connection could be opened to send the
+     * batch
+     */
+    public List<MessagingException> send(List<MimeMessage> messages) throws MessagingException {
+        List<MessagingException> failures = new ArrayList<>(messages.size());
+        PooledTransport transport = borrow();
+        try {
+            for (MimeMessage message : messages) {
+                try {
+                    message.saveChanges();
+                } catch (MessagingException ex) {
+                    failures.add(ex);
+                    continue;
+                }
+                MessagingException failure = null;
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    if (transport == null) {
+                        try {
+                            transport = borrow();
+                        } catch (MessagingException ex) {
+                            failure = ex;
+                            break;
+                        }
+                    }
+                    try {
+                        transport.transport.sendMessage(message, message.getAllRecipients());
+                        failure = null;
+                        break;
+                    } catch (SendFailedException ex) {
+                        // The recipients were rejected, but the connection can be reused
+                        failure = ex;
+                        break;
+                    } catch (MessagingException ex) {
+                        log.fine("Sending a message failed, retrying with a new SMTP connection: " + ex.getMessage());
+                        failure = ex;
+                        invalidate(transport);
+                        transport = null;
+                    }
+                }
+                failures.add(failure);
+            }
+        } finally {
+            if (transport != null) {
+                release(transport);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Returns the number of SMTP connections opened by the pool
+     *
+     * @return The number of connections opened
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * Close all the idle transports and stop pooling transports
+     */
+    public void close() {
+        closed = true;
+        PooledTransport transport;
+        while ((transport = idleTransports.pollFirst()) != null) {
+            closeQuietly(transport);
+        }
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("No SMTP connection became available within " + borrowTimeout + " ms");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", ex);
+        }
+        try {
+            PooledTransport transport;
+            while ((transport = idleTransports.pollFirst()) != null) {
+                if (isValid(transport)) {
+                    return transport;
+                }
+                closeQuietly(transport);
+            }
+            return connect();
+        } catch (MessagingException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private void release(PooledTransport transport) {
+        if (closed) {
+            closeQuietly(transport);
+        } else {
+            transport.lastUsed = System.nanoTime();
+            // Reuse the most recently used transport first, so that surplus
+            // transports become idle and are closed by the SMTP server
+            idleTransports.offerFirst(transport);
+        }
+        permits.release();
+    }
+
+    private void invalidate(PooledTransport transport) {
+        closeQuietly(transport);
+        permits.release();
+    }
+
+    private boolean isValid(PooledTransport transport) {
+        if (System.nanoTime() - transport.lastUsed < TimeUnit.MILLISECONDS.toNanos(validateAfterIdle)) {
+            return true;
+        }
+        // The SMTP transport sends a NOOP command to check the connection
+        return transport.transport.isConnected();
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        Transport transport = mailSession.getTransport("smtp");
+        transport.connect();
+        connectionsOpened.incrementAndGet();
+        return new PooledTransport(transport);
+    }
+
+    private static void closeQuietly(PooledTransport transport) {
+        try {
+            transport.transport.close();
+        } catch (MessagingException ex) {
+            log.fine("The SMTP connection could not be closed: " + ex.getMessage());
+        }
+    }
+
+    private static class PooledTransport {
+
+        private final Transport transport;
+        private long lastUsed = System.nanoTime();
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
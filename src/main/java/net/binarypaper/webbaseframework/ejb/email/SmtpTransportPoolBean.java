@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * An EJB Singleton Session Bean that holds a pool of connected SMTP transports
+ * for every mail session, shared by all the email message driven beans, the
+ * circuit breaker that pauses sending while the SMTP server is unhealthy and
+ * the rate limiter of the recipient domains
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SmtpTransportPoolBean {
+
+    private static final int MAX_SIZE = ApplicationSettings.getInt("mail.pool.max_size");
+    private static final long BORROW_TIMEOUT = ApplicationSettings.getLong("mail.pool.borrow_timeout_ms");
+    private static final long VALIDATE_AFTER_IDLE = ApplicationSettings.getLong("mail.pool.validate_after_idle_ms");
+    private static final int CIRCUIT_FAILURE_THRESHOLD = ApplicationSettings.getInt("mail.circuit.failure_threshold");
+    private static final long CIRCUIT_OPEN_TIME = ApplicationSettings.getLong("mail.circuit.open_ms");
+    private static final int RATE_LIMIT_BURST = ApplicationSettings.getInt("mail.rate_limit.burst");
+    private static final String RATE_LIMIT = ApplicationSettings.getString("mail.rate_limit.per_minute");
+
+    private final Map<Session, SmtpTransportPool> pools = new ConcurrentHashMap<>();
+
+    private final SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_TIME);
+
+    private final EmailRateLimiter rateLimiter = new EmailRateLimiter(RATE_LIMIT_BURST, SmtpTransportPoolBean::getRateLimit);
+
+    /**
+     * Send a batch of messages over a single pooled SMTP transport of their
+     * mail session
+     *
+     * @param mailSession The mail session of the messages
+     * @param messages The messages to send
+     * @return The failure of every message, in the order of the messages, or
+     * null for the messages that were sent
+     * @throws MessagingException If no connection could be opened to send the
+     * batch
+     */
+    public List<MessagingException> send(Session mailSession, List<MimeMessage> messages) throws MessagingException {
+        return getPool(mailSession).send(messages);
+    }
+
+    /**
+     * Returns the circuit breaker of the SMTP server
+     *
+     * @return The circuit breaker
+     */
+    public SmtpCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the rate limiter of the recipient domains
+     *
+     * @return The rate limiter
+     */
+    public EmailRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Returns the rate limit of a recipient domain, which is the
+     * mail.rate_limit.per_minute.&lt;domain&gt; setting if it is defined
+     *
+     * @param domain The recipient domain
+     * @return The number of email messages per minute, or 0 for no limit
+     */
+    private static int getRateLimit(String domain) {
+        return Integer.parseInt(ApplicationSettings.getString("mail.rate_limit.per_minute." + domain, RATE_LIMIT));
+    }
+
+    private SmtpTransportPool getPool(Session mailSession) {
+        return pools.computeIfAbsent(mailSession, session -> new SmtpTransportPool(session, MAX_SIZE, BORROW_TIMEOUT, VALIDATE_AFTER_IDLE));
+    }
+
+    @PreDestroy
+    public void close() {
+        pools.values().forEach(SmtpTransportPool::close);
+        pools.clear();
+    }
+}
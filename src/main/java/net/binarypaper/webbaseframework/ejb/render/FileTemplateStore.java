@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.java.Log;
+
+/**
+ * A template store that loads the template files from a directory of the file
+ * system, so that templates can be changed without a redeploy.
+ * <p>
+ * The directory and its sub directories are watched with a WatchService and
+ * only the template files that changed are reported. Hidden files and editor
+ * backup files are ignored.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class FileTemplateStore implements TemplateStore {
+
+    private final Path directory;
+    private final FileTemplateLoader templateLoader;
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    /**
+     * Create a template store for a directory
+     *
+     * @param directory The directory of the template files
+     * @throws IOException If the directory does not exist
+     */
+    public FileTemplateStore(Path directory) throws IOException {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.templateLoader = new FileTemplateLoader(this.directory.toFile());
+    }
+
+    @Override
+    public TemplateLoader getTemplateLoader() {
+        return templateLoader;
+    }
+
+    @Override
+    public List<String> getTemplateNames() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files
+              .filter(Files::isRegularFile)
+              .filter(FileTemplateStore::isTemplateFile)
+              .map(this::getTemplateName)
+              .sorted()
+              .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public synchronized void watch(Consumer<String> listener, ThreadFactory threadFactory) throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("The template directory " + directory + " is already watched");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        register(directory);
+        WatchService service = watchService;
+        threadFactory.newThread(() -> processEvents(service, listener)).start();
+        log.info("Watching the template directory " + directory + " for changes");
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                log.warning("The watch service of the template directory could not be closed: " + ex.getMessage());
+            }
+            watchService = null;
+        }
+    }
+
+    private void processEvents(WatchService service, Consumer<String> listener) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path folder = watchedDirectories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, so report all the templates as changed
+                        getTemplateNames().forEach(listener);
+                    } else if (folder != null) {
+                        fileChanged(folder.resolve((Path) event.context()), listener);
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            log.info("Stopped watching the template directory " + directory);
+        } catch (IOException | RuntimeException ex) {
+            log.severe("Watching the template directory " + directory + " failed: " + ex.getMessage());
+        }
+    }
+
+    private void fileChanged(Path file, Consumer<String> listener) throws IOException {
+        if (Files.isDirectory(file)) {
+            // Watch a new sub directory and report the templates it already contains
+            register(file);
+            try (Stream<Path> files = Files.walk(file)) {
+                files.filter(Files::isRegularFile)
+                  .filter(FileTemplateStore::isTemplateFile)
+                  .map(this::getTemplateName)
+                  .forEach(listener);
+            }
+        } else if (isTemplateFile(file)) {
+            listener.accept(getTemplateName(file));
+        }
+    }
+
+    private void register(Path folder) throws IOException {
+        try (Stream<Path> folders = Files.walk(folder)) {
+            for (Path path : folders.filter(Files::isDirectory).collect(Collectors.toList())) {
+                WatchKey key = path.register(watchService,
+                  StandardWatchEventKinds.ENTRY_CREATE,
+                  StandardWatchEventKinds.ENTRY_MODIFY,
+                  StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, path);
+            }
+        }
+    }
+
+    private String getTemplateName(Path file) {
+        return directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    private static boolean isTemplateFile(Path file) {
+        String fileName = file.getFileName().toString();
+        return !fileName.startsWith(".") && !fileName.endsWith("~");
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.cache.MruCacheStorage;
+import freemarker.cache.TemplateLoader;
+import freemarker.core._CoreAPI;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateExceptionHandler;
+import freemarker.template.Version;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.naming.NamingException;
+import javax.servlet.ServletContext;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.ejb.render.database.DatabaseTemplateStore;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * An EJB Singleton Session Bean that holds the FreeMarker Configuration and the
+ * registry of compiled templates shared by all render requests.
+ * <p>
+ * The Configuration is built and all the templates are compiled in parallel
+ * when the web application is deployed, so that no render request pays the
+ * cost of building the Configuration or parsing a template. Templates that
+ * cannot be parsed are either reported as broken or fail the deployment. The
+ * registry can be rebuilt at runtime with reload.
+ * <p>
+ * The templates are loaded from the configured template store, which is the
+ * war file, a file system directory or the database. Templates changed in a
+ * file system directory or the database are detected and recompiled one at a
+ * time.
+ * <p>
+ * Thread interruption checks are added to every compiled template, so that a
+ * render that exceeds its time budget can be stopped by interrupting it.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+// Lombok annotations
+@Log
+public class FreeMarkerEngineBean {
+
+    /**
+     * The folder path of the template files within the war file
+     */
+    public static final String TEMPLATE_PATH = "/WEB-INF/email_templates";
+
+    private static final int CACHE_STRONG_SIZE = ApplicationSettings.getInt("freemarker.cache.strong_size");
+    private static final int CACHE_SOFT_SIZE = ApplicationSettings.getInt("freemarker.cache.soft_size");
+    private static final long TEMPLATE_UPDATE_DELAY = ApplicationSettings.getLong("freemarker.template_update_delay");
+    private static final boolean FAIL_ON_BROKEN_TEMPLATE = ApplicationSettings.getBoolean("freemarker.templates.fail_on_error");
+    private static final String TEMPLATE_STORE = ApplicationSettings.getString("freemarker.templates.store");
+    private static final String TEMPLATE_DIRECTORY = ApplicationSettings.getString("freemarker.templates.directory");
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    @Resource
+    private SessionContext sessionContext;
+
+    private TemplateStore templateStore;
+
+    private volatile TemplateRegistry registry;
+
+    /**
+     * Build the FreeMarker Configuration and compile all the templates of the
+     * web application
+     *
+     * @param servletContext The servlet context of the web application
+     */
+    public synchronized void initialize(ServletContext servletContext) {
+        initialize(createTemplateStore(servletContext));
+        FreeMarkerEngineBean self = sessionContext.getBusinessObject(FreeMarkerEngineBean.class);
+        try {
+            templateStore.watch(self::reloadTemplate, threadFactory);
+        } catch (IOException ex) {
+            log.warning("The templates cannot be watched for changes: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Build the FreeMarker Configuration and compile all the templates of a
+     * template store, without watching the templates for changes
+     *
+     * @param templateStore The store the templates are loaded from
+     */
+    synchronized void initialize(TemplateStore templateStore) {
+        this.templateStore = templateStore;
+        reload();
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (templateStore != null) {
+            templateStore.close();
+        }
+    }
+
+    /**
+     * Rebuild the FreeMarker Configuration and recompile all the templates.
+     * <p>
+     * Render requests keep using the previous templates until the new registry
+     * has been built.
+     *
+     * @return The status of the new template registry
+     */
+    public synchronized TemplateRegistryStatus reload() {
+        if (templateStore == null) {
+            throw new IllegalStateException("The FreeMarker engine has not been initialized");
+        }
+        Configuration configuration = new Configuration(new Version(2, 3, 23));
+        // Set the preferred charset template files are stored in. UTF-8 is
+        // a good choice in most applications.
+        configuration.setDefaultEncoding("UTF-8");
+        // Sets how errors will appear.
+        // During web page *development* TemplateExceptionHandler.HTML_DEBUG_HANDLER is better.
+        configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        // Specify the source where the template files come from
+        configuration.setTemplateLoader(templateStore.getTemplateLoader());
+        configuration.setCacheStorage(new MruCacheStorage(CACHE_STRONG_SIZE, CACHE_SOFT_SIZE));
+        // A negative update delay means the template files are never checked
+        // for changes once they have been cached
+        configuration.setTemplateUpdateDelayMilliseconds(TEMPLATE_UPDATE_DELAY < 0 ? Long.MAX_VALUE : TEMPLATE_UPDATE_DELAY);
+        // Compile the templates in parallel
+        Map<String, Future<Template>> compilations = new LinkedHashMap<>();
+        for (String templateName : getTemplateNames()) {
+            compilations.put(templateName, executorService.submit(() -> addInterruptionChecks(configuration.getTemplate(templateName))));
+        }
+        Map<String, Template> templates = new HashMap<>();
+        Map<String, Long> lastModified = new HashMap<>();
+        Map<String, IOException> brokenTemplates = new HashMap<>();
+        for (Map.Entry<String, Future<Template>> compilation : compilations.entrySet()) {
+            try {
+                templates.put(compilation.getKey(), compilation.getValue().get());
+                lastModified.put(compilation.getKey(), getLastModified(configuration, compilation.getKey()));
+            } catch (ExecutionException ex) {
+                if (!(ex.getCause() instanceof IOException)) {
+                    throw new IllegalStateException("The template " + compilation.getKey() + " could not be compiled", ex.getCause());
+                }
+                log.warning("The template " + compilation.getKey() + " could not be compiled: " + ex.getCause().getMessage());
+                brokenTemplates.put(compilation.getKey(), (IOException) ex.getCause());
+            } catch (IOException ex) {
+                log.warning("The last modified time of the template " + compilation.getKey() + " could not be read: " + ex.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The compilation of the templates was interrupted", ex);
+            }
+        }
+        if (FAIL_ON_BROKEN_TEMPLATE && !brokenTemplates.isEmpty()) {
+            throw new IllegalStateException("The templates " + brokenTemplates.keySet() + " could not be compiled");
+        }
+        registry = new TemplateRegistry(configuration, templates, lastModified, brokenTemplates);
+        return getStatus();
+    }
+
+    /**
+     * Recompile a single template that was added, changed or removed, without
+     * rebuilding the whole template registry
+     *
+     * @param templateName The name of the template file
+     */
+    public synchronized void reloadTemplate(String templateName) {
+        TemplateRegistry current = getRegistry();
+        Map<String, Template> templates = new HashMap<>(current.templates);
+        Map<String, Long> lastModified = new HashMap<>(current.lastModified);
+        Map<String, IOException> brokenTemplates = new HashMap<>(current.brokenTemplates);
+        templates.remove(templateName);
+        lastModified.remove(templateName);
+        brokenTemplates.remove(templateName);
+        try {
+            current.configuration.removeTemplateFromCache(templateName);
+            Template template = current.configuration.getTemplate(templateName, null, null, null, true, true);
+            if (template == null) {
+                log.info("The template " + templateName + " has been removed");
+            } else {
+                templates.put(templateName, addInterruptionChecks(template));
+                lastModified.put(templateName, getLastModified(current.configuration, templateName));
+                log.info("The template " + templateName + " has been recompiled");
+            }
+        } catch (IOException ex) {
+            log.warning("The template " + templateName + " could not be compiled: " + ex.getMessage());
+            brokenTemplates.put(templateName, ex);
+        }
+        registry = new TemplateRegistry(current.configuration, templates, lastModified, brokenTemplates);
+    }
+
+    /**
+     * Returns the shared FreeMarker Configuration
+     *
+     * @return The FreeMarker Configuration
+     */
+    public Configuration getConfiguration() {
+        return getRegistry().configuration;
+    }
+
+    /**
+     * Returns a compiled template.
+     * <p>
+     * Templates that were added to the template store after the registry was
+     * built are compiled and added to the registry.
+     *
+     * @param templateName The name of the template file
+     * @return The template
+     * @throws IOException If the template does not exist or cannot be parsed
+     */
+    public Template getTemplate(String templateName) throws IOException {
+        TemplateRegistry current = getRegistry();
+        Template template = current.templates.get(templateName);
+        if (template != null) {
+            return template;
+        }
+        IOException brokenTemplate = current.brokenTemplates.get(templateName);
+        if (brokenTemplate != null) {
+            throw brokenTemplate;
+        }
+        return addTemplate(templateName);
+    }
+
+    /**
+     * Compile a template that is not in the registry yet and add it to the
+     * registry
+     *
+     * @param templateName The name of the template file
+     * @return The template
+     * @throws IOException If the template does not exist or cannot be parsed
+     */
+    private synchronized Template addTemplate(String templateName) throws IOException {
+        TemplateRegistry current = getRegistry();
+        Template template = current.templates.get(templateName);
+        if (template != null) {
+            // Added by another render request in the meantime
+            return template;
+        }
+        current.configuration.removeTemplateFromCache(templateName);
+        template = addInterruptionChecks(current.configuration.getTemplate(templateName));
+        Map<String, Template> templates = new HashMap<>(current.templates);
+        Map<String, Long> lastModified = new HashMap<>(current.lastModified);
+        templates.put(templateName, template);
+        lastModified.put(templateName, getLastModified(current.configuration, templateName));
+        registry = new TemplateRegistry(current.configuration, templates, lastModified, current.brokenTemplates);
+        log.info("The template " + templateName + " has been added");
+        return template;
+    }
+
+    /**
+     * Returns the last modified time of a template file when it was compiled
+     *
+     * @param templateName The name of the template file
+     * @return The last modified time, or -1 if the template was not compiled
+     * when the registry was built or the time is unknown
+     */
+    public long getLastModified(String templateName) {
+        Long templateLastModified = getRegistry().lastModified.get(templateName);
+        return templateLastModified == null ? -1 : templateLastModified;
+    }
+
+    /**
+     * Returns the compiled and broken templates of the template registry
+     *
+     * @return The status of the template registry
+     */
+    public TemplateRegistryStatus getStatus() {
+        TemplateRegistry current = getRegistry();
+        TemplateRegistryStatus status = new TemplateRegistryStatus();
+        status.getTemplates().addAll(current.templates.keySet());
+        Collections.sort(status.getTemplates());
+        for (Map.Entry<String, IOException> brokenTemplate : current.brokenTemplates.entrySet()) {
+            status.getBrokenTemplates().put(brokenTemplate.getKey(), brokenTemplate.getValue().getMessage());
+        }
+        return status;
+    }
+
+    private static Template addInterruptionChecks(Template template) {
+        // The only FreeMarker 2.3 hook that makes loops and nested content
+        // check the interrupt status of the render thread
+        _CoreAPI.addThreadInterruptedChecks(template);
+        return template;
+    }
+
+    private static long getLastModified(Configuration configuration, String templateName) throws IOException {
+        TemplateLoader templateLoader = configuration.getTemplateLoader();
+        Object templateSource = templateLoader.findTemplateSource(templateName);
+        if (templateSource == null) {
+            return -1;
+        }
+        try {
+            return templateLoader.getLastModified(templateSource);
+        } finally {
+            templateLoader.closeTemplateSource(templateSource);
+        }
+    }
+
+    private TemplateRegistry getRegistry() {
+        TemplateRegistry current = registry;
+        if (current == null) {
+            throw new IllegalStateException("The FreeMarker engine has not been initialized");
+        }
+        return current;
+    }
+
+    private List<String> getTemplateNames() {
+        try {
+            return templateStore.getTemplateNames();
+        } catch (IOException ex) {
+            throw new IllegalStateException("The templates could not be listed", ex);
+        }
+    }
+
+    private static TemplateStore createTemplateStore(ServletContext servletContext) {
+        try {
+            switch (TEMPLATE_STORE) {
+                case "file":
+                    return new FileTemplateStore(Paths.get(TEMPLATE_DIRECTORY));
+                case "database":
+                    return new DatabaseTemplateStore();
+                default:
+                    return new WebappTemplateStore(servletContext, TEMPLATE_PATH);
+            }
+        } catch (IOException | NamingException ex) {
+            throw new IllegalStateException("The template store " + TEMPLATE_STORE + " could not be created", ex);
+        }
+    }
+
+    private static class TemplateRegistry {
+
+        private final Configuration configuration;
+        private final Map<String, Template> templates;
+        private final Map<String, Long> lastModified;
+        private final Map<String, IOException> brokenTemplates;
+
+        TemplateRegistry(Configuration configuration, Map<String, Template> templates, Map<String, Long> lastModified,
+          Map<String, IOException> brokenTemplates) {
+            this.configuration = configuration;
+            this.templates = Collections.unmodifiableMap(templates);
+            this.lastModified = Collections.unmodifiableMap(lastModified);
+            this.brokenTemplates = Collections.unmodifiableMap(brokenTemplates);
+        }
+    }
+}
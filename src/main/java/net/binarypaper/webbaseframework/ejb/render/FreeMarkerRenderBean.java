@@ -15,27 +15,29 @@
  */
 package net.binarypaper.webbaseframework.ejb.render;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import freemarker.core.InvalidReferenceException;
 import freemarker.core.ParseException;
-import freemarker.ext.dom.NodeModel;
-import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.TemplateExceptionHandler;
-import freemarker.template.Version;
+import freemarker.template.TemplateModelException;
 import java.io.IOException;
-import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.LocalBean;
 import javax.ejb.Stateless;
-import javax.servlet.ServletContext;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.xml.parsers.ParserConfigurationException;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
 import net.binarypaper.webbaseframework.rest.BusinessLogicException;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -48,47 +50,215 @@ import org.xml.sax.SAXException;
 @LocalBean
 public class FreeMarkerRenderBean {
 
-    private static Configuration CONFIGURATION;
-
-    public String render(ServletContext servletContext, String templateName, String contentType, String data) throws BusinessLogicException {
-        if (CONFIGURATION == null) {
-            Configuration configuration = new Configuration(new Version(2, 3, 23));
-            // Set the preferred charset template files are stored in. UTF-8 is
-            // a good choice in most applications.
-            configuration.setDefaultEncoding("UTF-8");
-            // Sets how errors will appear.
-            // During web page *development* TemplateExceptionHandler.HTML_DEBUG_HANDLER is better.
-            configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
-            // Specify the source where the template files come from. Here I set a
-            // folder path within the war file.
-            configuration.setServletContextForTemplateLoading(servletContext, "/WEB-INF/email_templates");
-            // Only assign the static CONFIGURATION if no IOException occurred
-            CONFIGURATION = configuration;
+    private static final int MAX_INPUT_SIZE = ApplicationSettings.getInt("render.input.max_size");
+    private static final String XML_LIGHTWEIGHT = ApplicationSettings.getString("render.xml.lightweight");
+    private static final String TIMEOUT = ApplicationSettings.getString("render.timeout_ms");
+    private static final long MAX_OUTPUT_SIZE = ApplicationSettings.getLong("render.output.max_size");
+    private static final String HTML_EXTENSION = ".html";
+    private static final String TEXT_EXTENSION = ".txt";
+
+    @EJB
+    private FreeMarkerEngineBean freeMarkerEngineBean;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecutorService;
+
+    /**
+     * Render a document into a String
+     *
+     * @param templateName The name of the template file
+     * @param contentType The content type of the input data
+     * @param data The input data
+     * @return The rendered document
+     * @throws BusinessLogicException
+     */
+    public String render(String templateName, String contentType, String data) throws BusinessLogicException {
+        Template template = getTemplate(templateName);
+        Map<String, Object> templateData = createDataModel(templateName, contentType, data);
+        StringWriter writer = new StringWriter();
+        try {
+            process(template, templateData, writer);
+        } catch (IOException ex) {
+            throw new BusinessLogicException("FMR4", Response.Status.NOT_FOUND.getStatusCode());
         }
+        return writer.toString();
+    }
+
+    /**
+     * Render the sibling .html and .txt templates of a template, parsing the
+     * input data only once
+     *
+     * @param templateName The name of the .html or .txt template file
+     * @param contentType The content type of the input data
+     * @param data The input data
+     * @return The rendered HTML and plain text documents
+     * @throws BusinessLogicException
+     */
+    public AlternativeDocuments renderAlternatives(String templateName, String contentType, String data) throws BusinessLogicException {
+        Template htmlTemplate = getTemplate(getSiblingTemplateName(templateName, HTML_EXTENSION));
+        Template textTemplate = getTemplate(getSiblingTemplateName(templateName, TEXT_EXTENSION));
+        Map<String, Object> templateData = createDataModel(templateName, contentType, data);
+        AlternativeDocuments documents = new AlternativeDocuments();
         try {
-            Template template = CONFIGURATION.getTemplate(templateName);
-            Map<String, Object> templateData = new HashMap<>();
-            if (contentType.equalsIgnoreCase(MediaType.APPLICATION_XML)) {
-                InputSource inputSource = new InputSource(new StringReader(data));
-                templateData.put("data", NodeModel.parse(inputSource));
-            } else {
-                templateData.put("data", data);
-            }
             StringWriter writer = new StringWriter();
-            template.process(templateData, writer);
-            return writer.toString();
+            process(htmlTemplate, templateData, writer);
+            documents.setHtml(writer.toString());
+            writer = new StringWriter();
+            process(textTemplate, templateData, writer);
+            documents.setText(writer.toString());
+        } catch (IOException ex) {
+            throw new BusinessLogicException("FMR4", Response.Status.NOT_FOUND.getStatusCode());
+        }
+        return documents;
+    }
+
+    /**
+     * Check that the sibling .html and .txt templates of a template exist
+     *
+     * @param templateName The name of the .html or .txt template file
+     * @throws BusinessLogicException If a sibling template does not exist or
+     * cannot be parsed
+     */
+    public void checkAlternatives(String templateName) throws BusinessLogicException {
+        getTemplate(getSiblingTemplateName(templateName, HTML_EXTENSION));
+        getTemplate(getSiblingTemplateName(templateName, TEXT_EXTENSION));
+    }
+
+    /**
+     * Returns the compiled template with the specified name
+     *
+     * @param templateName The name of the template file
+     * @return The template
+     * @throws BusinessLogicException If the template does not exist or cannot
+     * be parsed
+     */
+    public Template getTemplate(String templateName) throws BusinessLogicException {
+        try {
+            return freeMarkerEngineBean.getTemplate(templateName);
         } catch (ParseException ex) {
             throw new BusinessLogicException("FMR2", Response.Status.BAD_REQUEST.getStatusCode());
-        } catch (InvalidReferenceException ex) {
-            throw new BusinessLogicException("FMR3", Response.Status.BAD_REQUEST.getStatusCode());
         } catch (IOException ex) {
             throw new BusinessLogicException("FMR4", Response.Status.NOT_FOUND.getStatusCode());
-        } catch (TemplateException ex) {
+        }
+    }
+
+    /**
+     * Create the data model of the template from the input data
+     *
+     * @param templateName The name of the template file
+     * @param contentType The content type of the input data
+     * @param data The input data
+     * @return The data model
+     * @throws BusinessLogicException If the input data is invalid or too large
+     */
+    public Map<String, Object> createDataModel(String templateName, String contentType, String data) throws BusinessLogicException {
+        checkInputSize(data);
+        Map<String, Object> templateData = new HashMap<>();
+        try {
+            if (contentType.equalsIgnoreCase(MediaType.APPLICATION_XML)) {
+                templateData.put("data", XmlDataModel.parse(data, isXmlLightweight(templateName)));
+            } else {
+                templateData.put("data", JsonDataModel.parse(data, freeMarkerEngineBean.getConfiguration().getObjectWrapper()));
+            }
+        } catch (JsonProcessingException ex) {
+            throw new BusinessLogicException("FMR5", "The input JSON data is invalid: " + ex.getOriginalMessage(), Response.Status.BAD_REQUEST.getStatusCode());
+        } catch (TemplateModelException ex) {
             throw new BusinessLogicException("FMR5", ex.getMessage(), Response.Status.BAD_REQUEST.getStatusCode());
-        } catch (SAXException ex) {
+        } catch (IOException | SAXException ex) {
             throw new BusinessLogicException("FMR6", Response.Status.BAD_REQUEST.getStatusCode());
         } catch (ParserConfigurationException ex) {
             throw new BusinessLogicException("FMR7", Response.Status.BAD_REQUEST.getStatusCode());
         }
+        return templateData;
+    }
+
+    /**
+     * Check that the input data does not exceed the maximum size
+     *
+     * @param data The input data
+     * @throws BusinessLogicException If the input data is too large
+     */
+    public void checkInputSize(String data) throws BusinessLogicException {
+        if ((data != null) && (data.length() > MAX_INPUT_SIZE)) {
+            throw new BusinessLogicException("FMR8", Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        }
+    }
+
+    /**
+     * Process a template with a data model, writing the output directly to the
+     * specified writer.
+     * <p>
+     * The render is aborted if it exceeds the time budget of the template or
+     * the maximum output size.
+     *
+     * @param template The template to process
+     * @param templateData The data model
+     * @param writer The writer the rendered document is written to
+     * @throws BusinessLogicException If the template processing fails or is
+     * aborted
+     * @throws IOException If the output cannot be written
+     */
+    public void process(Template template, Map<String, Object> templateData, Writer writer) throws BusinessLogicException, IOException {
+        long timeout = getTimeout(template.getName());
+        RenderGovernor governor = new RenderGovernor(writer, timeout, MAX_OUTPUT_SIZE);
+        ScheduledFuture<?> timer = null;
+        if (timeout > 0) {
+            timer = scheduledExecutorService.schedule(governor::timeout, timeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+            template.process(templateData, governor);
+        } catch (InvalidReferenceException ex) {
+            checkAborted(governor);
+            throw new BusinessLogicException("FMR3", Response.Status.BAD_REQUEST.getStatusCode());
+        } catch (TemplateException ex) {
+            checkAborted(governor);
+            throw new BusinessLogicException("FMR5", ex.getMessage(), Response.Status.BAD_REQUEST.getStatusCode());
+        } catch (IOException | RuntimeException ex) {
+            checkAborted(governor);
+            throw ex;
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            governor.finish();
+        }
+    }
+
+    /**
+     * Returns the time budget of a template, which is the
+     * render.timeout_ms.&lt;template name&gt; setting if it is defined
+     *
+     * @param templateName The name of the template file
+     * @return The time budget in milliseconds, or 0 for no limit
+     */
+    private static long getTimeout(String templateName) {
+        return Long.parseLong(ApplicationSettings.getString("render.timeout_ms." + templateName, TIMEOUT));
+    }
+
+    /**
+     * Returns true if the XML input data of a template is parsed into the
+     * lightweight model, which is the render.xml.lightweight.&lt;template
+     * name&gt; setting if it is defined
+     *
+     * @param templateName The name of the template file
+     * @return true if the lightweight model is used
+     */
+    private static boolean isXmlLightweight(String templateName) {
+        return Boolean.parseBoolean(ApplicationSettings.getString("render.xml.lightweight." + templateName, XML_LIGHTWEIGHT));
+    }
+
+    private static String getSiblingTemplateName(String templateName, String extension) throws BusinessLogicException {
+        if (!templateName.endsWith(HTML_EXTENSION) && !templateName.endsWith(TEXT_EXTENSION)) {
+            throw new BusinessLogicException("FMR13", Response.Status.BAD_REQUEST.getStatusCode());
+        }
+        return templateName.substring(0, templateName.lastIndexOf('.')) + extension;
+    }
+
+    private static void checkAborted(RenderGovernor governor) throws BusinessLogicException {
+        if (governor.getAbortReason() != null) {
+            // An exceeded time budget is a server capacity problem rather than an invalid request
+            Response.Status status = governor.isTimedOut() ? Response.Status.SERVICE_UNAVAILABLE : Response.Status.BAD_REQUEST;
+            throw new BusinessLogicException("FMR9", governor.getAbortReason(), status.getStatusCode());
+        }
     }
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import freemarker.template.WrappingTemplateModel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts JSON input data into a FreeMarker data model.
+ * <p>
+ * The JSON is parsed once with the Jackson streaming parser into maps, lists
+ * and simple values, which are only wrapped into template models by the object
+ * wrapper when a template accesses them. Like the FreeMarker ?eval built-in,
+ * single quoted strings and unquoted field names are accepted. The root model
+ * can still be used as a string, so templates that evaluate the input data
+ * with ?eval keep working. Empty input data is passed to the template as an
+ * empty string, as it was before the input data was parsed.
+ * <p>
+ * A batch of JSON input data, either a JSON array or a stream of JSON values
+ * such as newline delimited JSON, can be read one data model at a time with a
+ * {@link BatchReader}.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class JsonDataModel {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+      .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+      .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
+
+    private JsonDataModel() {
+    }
+
+    /**
+     * Parse JSON input data into a template model
+     *
+     * @param json The JSON input data
+     * @param objectWrapper The object wrapper used to wrap the JSON values
+     * @return The template model of the JSON input data, or the input data
+     * as a string if it is empty
+     * @throws IOException If the JSON input data is invalid
+     * @throws TemplateModelException If a JSON value cannot be wrapped
+     */
+    public static TemplateModel parse(String json, ObjectWrapper objectWrapper) throws IOException, TemplateModelException {
+        if ((json == null) || json.trim().isEmpty()) {
+            return objectWrapper.wrap(json);
+        }
+        Object value;
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            value = readValue(parser, parser.nextToken());
+            if (parser.nextToken() != null) {
+                throw new JsonParseException("Unexpected content after the JSON input data", parser.getCurrentLocation());
+            }
+        }
+        return wrap(value, json, objectWrapper);
+    }
+
+    /**
+     * Create a reader of a batch of JSON input data
+     *
+     * @param input The JSON input data
+     * @param array True if the input data is a JSON array of data models,
+     * false if it is a stream of JSON values
+     * @param objectWrapper The object wrapper used to wrap the JSON values
+     * @return The batch reader
+     * @throws IOException If the input data cannot be read
+     */
+    public static BatchReader createBatchReader(InputStream input, boolean array, ObjectWrapper objectWrapper) throws IOException {
+        return new BatchReader(JSON_FACTORY.createParser(input), array, objectWrapper);
+    }
+
+    private static TemplateModel wrap(Object value, String json, ObjectWrapper objectWrapper) throws TemplateModelException {
+        if (value instanceof Map) {
+            return new JsonObjectModel((Map<String, Object>) value, json, objectWrapper);
+        }
+        if (value instanceof List) {
+            return new JsonArrayModel((List<Object>) value, json, objectWrapper);
+        }
+        return objectWrapper.wrap(value);
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                Map<String, Object> object = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    object.put(fieldName, readValue(parser, parser.nextToken()));
+                }
+                return object;
+            case START_ARRAY:
+                List<Object> array = new ArrayList<>();
+                for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+                    array.add(readValue(parser, element));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException("Unexpected JSON token " + token, parser.getCurrentLocation());
+        }
+    }
+
+    private static String toJson(Object value) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            writeValue(generator, value);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return writer.toString();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> field : ((Map<String, Object>) value).entrySet()) {
+                generator.writeFieldName(field.getKey());
+                writeValue(generator, field.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof List) {
+            generator.writeStartArray();
+            for (Object element : (List<Object>) value) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value.toString());
+        }
+    }
+
+    /**
+     * Reads a batch of JSON input data one data model at a time
+     */
+    public static class BatchReader implements Closeable {
+
+        private final JsonParser parser;
+        private final boolean array;
+        private final ObjectWrapper objectWrapper;
+        private boolean started;
+
+        BatchReader(JsonParser parser, boolean array, ObjectWrapper objectWrapper) {
+            this.parser = parser;
+            this.array = array;
+            this.objectWrapper = objectWrapper;
+        }
+
+        /**
+         * Read the next data model of the batch
+         *
+         * @return The template model of the next JSON value, or null at the
+         * end of the batch
+         * @throws IOException If the JSON input data is invalid
+         * @throws TemplateModelException If a JSON value cannot be wrapped
+         */
+        public TemplateModel next() throws IOException, TemplateModelException {
+            JsonToken token = parser.nextToken();
+            if (array && !started) {
+                if (token != JsonToken.START_ARRAY) {
+                    throw new JsonParseException("The batch input data must be a JSON array", parser.getCurrentLocation());
+                }
+                token = parser.nextToken();
+            }
+            started = true;
+            if ((token == null) || (array && (token == JsonToken.END_ARRAY))) {
+                return null;
+            }
+            return wrap(readValue(parser, token), null, objectWrapper);
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+
+    /**
+     * The template model of a JSON object at the root of the input data
+     */
+    private static class JsonObjectModel extends WrappingTemplateModel implements TemplateHashModelEx, TemplateScalarModel {
+
+        private final Map<String, Object> object;
+        private String json;
+
+        JsonObjectModel(Map<String, Object> object, String json, ObjectWrapper objectWrapper) {
+            super(objectWrapper);
+            this.object = object;
+            this.json = json;
+        }
+
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            return wrap(object.get(key));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return object.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return object.size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return new SimpleCollection(object.keySet(), getObjectWrapper());
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return new SimpleCollection(object.values(), getObjectWrapper());
+        }
+
+        @Override
+        public String getAsString() {
+            if (json == null) {
+                json = toJson(object);
+            }
+            return json;
+        }
+    }
+
+    /**
+     * The template model of a JSON array at the root of the input data
+     */
+    private static class JsonArrayModel extends WrappingTemplateModel implements TemplateSequenceModel, TemplateScalarModel {
+
+        private final List<Object> array;
+        private String json;
+
+        JsonArrayModel(List<Object> array, String json, ObjectWrapper objectWrapper) {
+            super(objectWrapper);
+            this.array = array;
+            this.json = json;
+        }
+
+        @Override
+        public TemplateModel get(int index) throws TemplateModelException {
+            return (index < 0) || (index >= array.size()) ? null : wrap(array.get(index));
+        }
+
+        @Override
+        public int size() {
+            return array.size();
+        }
+
+        @Override
+        public String getAsString() {
+            if (json == null) {
+                json = toJson(array);
+            }
+            return json;
+        }
+    }
+}
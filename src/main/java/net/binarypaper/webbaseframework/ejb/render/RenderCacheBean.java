@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * An EJB Singleton Session Bean that caches rendered documents.
+ * <p>
+ * Documents are cached by template name, template last modified time, content
+ * type and a SHA-256 hash of the input data, so identical render requests only
+ * process the template once. The least recently used documents are evicted
+ * when the cache is full and documents expire after the time to live.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RenderCacheBean {
+
+    private static final boolean ENABLED = ApplicationSettings.getBoolean("render.cache.enabled");
+    private static final int MAX_ENTRIES = ApplicationSettings.getInt("render.cache.max_entries");
+    private static final int MAX_ENTRY_SIZE = ApplicationSettings.getInt("render.cache.max_entry_size");
+    private static final long TIME_TO_LIVE = TimeUnit.SECONDS.toMillis(ApplicationSettings.getLong("render.cache.ttl_seconds"));
+
+    private final Map<String, CachedDocument> documents = new LinkedHashMap<String, CachedDocument>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedDocument> eldest) {
+            if (size() > MAX_ENTRIES) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Returns true if rendered documents are cached
+     *
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Create the cache key of a render request
+     *
+     * @param templateName The name of the template file
+     * @param templateLastModified The last modified time of the template file
+     * @param contentType The content type of the input data
+     * @param data The input data
+     * @return The cache key
+     */
+    public String createKey(String templateName, long templateLastModified, String contentType, String data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((data == null ? "" : data).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder()
+              .append(templateName).append('|')
+              .append(templateLastModified).append('|')
+              .append(contentType).append('|');
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+    }
+
+    /**
+     * Returns a cached document
+     *
+     * @param key The cache key of the render request
+     * @return The rendered document, or null if it is not cached
+     */
+    public synchronized String get(String key) {
+        CachedDocument cachedDocument = documents.get(key);
+        if ((cachedDocument != null) && (cachedDocument.expires < System.currentTimeMillis())) {
+            documents.remove(key);
+            cachedDocument = null;
+        }
+        if (cachedDocument == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return cachedDocument.document;
+    }
+
+    /**
+     * Cache a rendered document, unless it is larger than the maximum entry
+     * size
+     *
+     * @param key The cache key of the render request
+     * @param document The rendered document
+     */
+    public synchronized void put(String key, String document) {
+        if (document.length() <= MAX_ENTRY_SIZE) {
+            documents.put(key, new CachedDocument(document, System.currentTimeMillis() + TIME_TO_LIVE));
+        }
+    }
+
+    /**
+     * Remove all the cached documents
+     */
+    public synchronized void clear() {
+        documents.clear();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache
+     *
+     * @return The cache statistics
+     */
+    public synchronized RenderCacheStatistics getStatistics() {
+        RenderCacheStatistics statistics = new RenderCacheStatistics();
+        statistics.setEnabled(ENABLED);
+        statistics.setSize(documents.size());
+        statistics.setMaxEntries(MAX_ENTRIES);
+        statistics.setHits(hits);
+        statistics.setMisses(misses);
+        statistics.setEvictions(evictions);
+        return statistics;
+    }
+
+    private static class CachedDocument {
+
+        private final String document;
+        private final long expires;
+
+        CachedDocument(String document, long expires) {
+            this.document = document;
+            this.expires = expires;
+        }
+    }
+}
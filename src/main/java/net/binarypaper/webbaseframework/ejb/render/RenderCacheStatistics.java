@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * Class used to marshal the statistics of the render cache as a JSON object
+ * for a REST response
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+public class RenderCacheStatistics {
+
+    // Swagger annotations
+    @ApiModelProperty(value = "Whether rendered documents are cached", example = "true", readOnly = true)
+    private boolean enabled;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of cached documents", example = "10", readOnly = true)
+    private int size;
+
+    // Jackson annotations
+    @JsonProperty("max_entries")
+    // Swagger annotations
+    @ApiModelProperty(value = "The maximum number of cached documents", example = "1000", readOnly = true)
+    private int maxEntries;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of render requests served from the cache", example = "90", readOnly = true)
+    private long hits;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of render requests not found in the cache", example = "10", readOnly = true)
+    private long misses;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The number of documents evicted to make room for new documents", example = "0", readOnly = true)
+    private long evictions;
+
+}
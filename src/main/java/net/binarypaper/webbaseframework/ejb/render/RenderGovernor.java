@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A writer that governs a single template render.
+ * <p>
+ * The render is aborted when the rendered document exceeds the maximum size or
+ * the render exceeds its time budget. The time budget is checked on every
+ * write and by a timer calling {@link #timeout()}, which interrupts the render
+ * thread so that the thread interruption checks added to compiled templates
+ * stop loops that do not write any output. {@link #finish()} must be called on
+ * the render thread when the render has completed.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class RenderGovernor extends FilterWriter {
+
+    private final long timeout;
+    private final long deadline;
+    private final long maxSize;
+    private final Thread thread;
+    private long size;
+    private String abortReason;
+    private boolean timedOut;
+    private boolean finished;
+
+    /**
+     * Create a governor for a render on the current thread
+     *
+     * @param out The writer the rendered document is written to
+     * @param timeout The time budget in milliseconds, or 0 for no limit
+     * @param maxSize The maximum number of characters of the rendered
+     * document, or 0 for no limit
+     */
+    public RenderGovernor(Writer out, long timeout, long maxSize) {
+        super(out);
+        this.timeout = timeout;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.maxSize = maxSize;
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * Abort the render because it exceeded its time budget
+     */
+    public synchronized void timeout() {
+        if (!finished && (abortReason == null)) {
+            abortReason = "The render exceeded its time budget of " + timeout + " ms";
+            timedOut = true;
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Returns true if the render was aborted because it exceeded its time
+     * budget
+     *
+     * @return true if the render timed out
+     */
+    public synchronized boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Mark the render as completed and clear the interrupt status of the
+     * render thread if the render was interrupted
+     */
+    public synchronized void finish() {
+        finished = true;
+        if (abortReason != null) {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Returns the reason the render was aborted
+     *
+     * @return The reason, or null if the render was not aborted
+     */
+    public synchronized String getAbortReason() {
+        return abortReason;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        check(1);
+        out.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        check(len);
+        out.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        check(len);
+        out.write(str, off, len);
+    }
+
+    private void check(int length) throws IOException {
+        size += length;
+        synchronized (this) {
+            if (abortReason == null) {
+                if ((maxSize > 0) && (size > maxSize)) {
+                    abortReason = "The rendered document exceeded the maximum size of " + maxSize + " characters";
+                } else if ((timeout > 0) && (System.nanoTime() - deadline > 0)) {
+                    abortReason = "The render exceeded its time budget of " + timeout + " ms";
+                    timedOut = true;
+                }
+            }
+            if (abortReason != null) {
+                throw new IOException(abortReason);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * Class used to marshal the compiled and broken templates of the template
+ * registry as a JSON object for a REST response
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+public class TemplateRegistryStatus {
+
+    /**
+     * The names of the compiled templates
+     *
+     * @return The template names
+     */
+    // Swagger annotations
+    @ApiModelProperty(value = "The names of the compiled templates", readOnly = true)
+    private List<String> templates = new ArrayList<>();
+
+    /**
+     * The templates that could not be compiled
+     *
+     * @return The error message of every broken template by template name
+     */
+    // Jackson annotations
+    @JsonProperty("broken_templates")
+    // Swagger annotations
+    @ApiModelProperty(value = "The error message of every template that could not be compiled", readOnly = true)
+    private Map<String, String> brokenTemplates = new HashMap<>();
+
+}
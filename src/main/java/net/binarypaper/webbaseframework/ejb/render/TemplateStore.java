@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.cache.TemplateLoader;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * The store the template files are loaded from.
+ * <p>
+ * A template store provides the FreeMarker TemplateLoader of its templates and
+ * the names of all its templates, so that they can be compiled when the
+ * template registry is built. A store that can detect changes to its
+ * templates notifies the name of every changed template, so that only that
+ * template is recompiled.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public interface TemplateStore {
+
+    /**
+     * Returns the FreeMarker TemplateLoader that loads the template files
+     *
+     * @return The template loader
+     */
+    TemplateLoader getTemplateLoader();
+
+    /**
+     * Returns the names of all the templates of the store
+     *
+     * @return The template names
+     * @throws IOException If the templates cannot be listed
+     */
+    List<String> getTemplateNames() throws IOException;
+
+    /**
+     * Start watching the templates for changes. Stores that cannot detect
+     * changes ignore the listener.
+     *
+     * @param listener Called with the name of every added, changed or removed
+     * template
+     * @param threadFactory The factory of the thread that watches for changes
+     * @throws IOException If the templates cannot be watched
+     */
+    default void watch(Consumer<String> listener, ThreadFactory threadFactory) throws IOException {
+    }
+
+    /**
+     * Stop watching the templates and release the resources of the store
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.cache.TemplateLoader;
+import freemarker.cache.WebappTemplateLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.ServletContext;
+
+/**
+ * A template store that loads the template files from a folder within the war
+ * file. Changes are only picked up by reloading the templates.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class WebappTemplateStore implements TemplateStore {
+
+    private final ServletContext servletContext;
+    private final String path;
+
+    /**
+     * Create a template store for a folder of the web application
+     *
+     * @param servletContext The servlet context of the web application
+     * @param path The folder path of the template files within the war file
+     */
+    public WebappTemplateStore(ServletContext servletContext, String path) {
+        this.servletContext = servletContext;
+        this.path = path;
+    }
+
+    @Override
+    public TemplateLoader getTemplateLoader() {
+        return new WebappTemplateLoader(servletContext, path);
+    }
+
+    @Override
+    public List<String> getTemplateNames() {
+        return getTemplateNames(servletContext, path + "/", path.length() + 1);
+    }
+
+    /**
+     * Returns the names of all the template files in a folder of the web
+     * application and its sub folders
+     *
+     * @param servletContext The servlet context of the web application
+     * @param folder The folder path, ending with a slash
+     * @param prefixLength The length of the template folder path prefix
+     * @return The template names relative to the template folder
+     */
+    static List<String> getTemplateNames(ServletContext servletContext, String folder, int prefixLength) {
+        List<String> templateNames = new ArrayList<>();
+        Set<String> resourcePaths = servletContext.getResourcePaths(folder);
+        if (resourcePaths == null) {
+            return templateNames;
+        }
+        for (String resourcePath : resourcePaths) {
+            if (resourcePath.endsWith("/")) {
+                templateNames.addAll(getTemplateNames(servletContext, resourcePath, prefixLength));
+            } else {
+                templateNames.add(resourcePath.substring(prefixLength));
+            }
+        }
+        return templateNames;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.ext.dom.NodeModel;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Converts XML input data into a FreeMarker data model.
+ * <p>
+ * Documents are parsed into a FreeMarker NodeModel with a DocumentBuilder that
+ * is reused by each thread and that does not process DOCTYPE declarations or
+ * external entities. Templates that opt in are instead given a lightweight
+ * model parsed with a StAX reader, which supports element, attribute (@name)
+ * and text access, but not the other node built-ins of the NodeModel.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class XmlDataModel {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<>();
+
+    private static final ErrorHandler ERROR_HANDLER = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+
+    private XmlDataModel() {
+    }
+
+    /**
+     * Parse XML input data into a template model
+     *
+     * @param xml The XML input data
+     * @param lightweight True to parse the input data into the lightweight
+     * model instead of a NodeModel
+     * @return The template model of the XML input data
+     * @throws SAXException If the XML input data is invalid
+     * @throws ParserConfigurationException If no secure XML parser could be
+     * configured
+     */
+    public static TemplateModel parse(String xml, boolean lightweight) throws SAXException, ParserConfigurationException {
+        if (lightweight) {
+            return parseLightweight(xml);
+        }
+        DocumentBuilder documentBuilder = getDocumentBuilder();
+        try {
+            Document document = documentBuilder.parse(new InputSource(new StringReader(xml)));
+            // Remove comments and processing instructions and merge adjacent
+            // text nodes in the same way as NodeModel.parse
+            NodeModel.simplify(document);
+            return NodeModel.wrap(document);
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        } finally {
+            documentBuilder.reset();
+            documentBuilder.setErrorHandler(ERROR_HANDLER);
+        }
+    }
+
+    private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = DOCUMENT_BUILDER.get();
+        if (documentBuilder == null) {
+            documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            documentBuilder.setErrorHandler(ERROR_HANDLER);
+            DOCUMENT_BUILDER.set(documentBuilder);
+        }
+        return documentBuilder;
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException("The XML parser does not support secure processing", ex);
+        }
+        return factory;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    private static TemplateModel parseLightweight(String xml) throws SAXException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+            Element document = new Element(null);
+            List<Element> path = new ArrayList<>();
+            path.add(document);
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        Element element = new Element(reader.getLocalName());
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            element.attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                        path.get(path.size() - 1).addChild(element);
+                        path.add(element);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        path.remove(path.size() - 1);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        path.get(path.size() - 1).text.append(reader.getText());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return new ElementListModel(Collections.singletonList(document));
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    // The reader of a String holds no resources
+                }
+            }
+        }
+    }
+
+    /**
+     * An element of the lightweight model
+     */
+    private static class Element {
+
+        private final String name;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private final Map<String, List<Element>> children = new LinkedHashMap<>();
+        private final StringBuilder text = new StringBuilder();
+
+        Element(String name) {
+            this.name = name;
+        }
+
+        void addChild(Element child) {
+            List<Element> namedChildren = children.get(child.name);
+            if (namedChildren == null) {
+                namedChildren = new ArrayList<>();
+                children.put(child.name, namedChildren);
+            }
+            namedChildren.add(child);
+        }
+    }
+
+    /**
+     * The template model of a list of elements of the lightweight model,
+     * which can be used as a hash or string when it contains a single element
+     */
+    private static class ElementListModel implements TemplateSequenceModel, TemplateHashModel, TemplateScalarModel {
+
+        private final List<Element> elements;
+
+        ElementListModel(List<Element> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            if ((index < 0) || (index >= elements.size())) {
+                return null;
+            }
+            return new ElementListModel(Collections.singletonList(elements.get(index)));
+        }
+
+        @Override
+        public int size() {
+            return elements.size();
+        }
+
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            if (key.startsWith("@")) {
+                String attribute = getSingleElement().attributes.get(key.substring(1));
+                return attribute == null ? null : new SimpleScalar(attribute);
+            }
+            List<Element> namedChildren = new ArrayList<>();
+            for (Element element : elements) {
+                List<Element> children = element.children.get(key);
+                if (children != null) {
+                    namedChildren.addAll(children);
+                }
+            }
+            return namedChildren.isEmpty() ? null : new ElementListModel(namedChildren);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return elements.isEmpty();
+        }
+
+        @Override
+        public String getAsString() throws TemplateModelException {
+            return getSingleElement().text.toString();
+        }
+
+        private Element getSingleElement() throws TemplateModelException {
+            if (elements.size() != 1) {
+                throw new TemplateModelException("Expected a single XML element, but there are " + elements.size());
+            }
+            return elements.get(0);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render.database;
+
+import freemarker.cache.TemplateLoader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.ejb.render.TemplateStore;
+import net.binarypaper.webbaseframework.entity.RenderTemplate;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+
+/**
+ * A template store that loads the templates from the RENDER_TEMPLATE table, so
+ * that templates can be added and changed without a redeploy and are shared by
+ * all the nodes of a cluster.
+ * <p>
+ * The last modified times of the templates are polled, and every template that
+ * was added, changed or removed since the previous poll is reported.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class DatabaseTemplateStore implements TemplateStore, TemplateLoader {
+
+    private static final long POLL_INTERVAL = ApplicationSettings.getLong("freemarker.templates.poll_ms");
+
+    private final RenderTemplateBean renderTemplateBean;
+    private final long pollInterval;
+    private Thread watcher;
+
+    /**
+     * Create a template store for the RENDER_TEMPLATE table
+     *
+     * @throws NamingException If the RenderTemplateBean cannot be found
+     */
+    public DatabaseTemplateStore() throws NamingException {
+        this(InitialContext.doLookup("java:module/RenderTemplateBean"), POLL_INTERVAL);
+    }
+
+    DatabaseTemplateStore(RenderTemplateBean renderTemplateBean, long pollInterval) {
+        this.renderTemplateBean = renderTemplateBean;
+        this.pollInterval = pollInterval;
+    }
+
+    @Override
+    public TemplateLoader getTemplateLoader() {
+        return this;
+    }
+
+    @Override
+    public List<String> getTemplateNames() {
+        return renderTemplateBean.getTemplateNames();
+    }
+
+    @Override
+    public synchronized void watch(Consumer<String> listener, ThreadFactory threadFactory) {
+        if (pollInterval <= 0) {
+            return;
+        }
+        if (watcher != null) {
+            throw new IllegalStateException("The database templates are already watched");
+        }
+        Map<String, Long> lastModifiedTimes = renderTemplateBean.getLastModifiedTimes();
+        watcher = threadFactory.newThread(() -> poll(lastModifiedTimes, listener));
+        watcher.start();
+        log.info("Polling the database templates for changes every " + pollInterval + " ms");
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    private void poll(Map<String, Long> lastModifiedTimes, Consumer<String> listener) {
+        try {
+            while (true) {
+                Thread.sleep(pollInterval);
+                try {
+                    Map<String, Long> current = renderTemplateBean.getLastModifiedTimes();
+                    for (Map.Entry<String, Long> template : current.entrySet()) {
+                        if (!Objects.equals(template.getValue(), lastModifiedTimes.get(template.getKey()))) {
+                            listener.accept(template.getKey());
+                        }
+                    }
+                    for (String templateName : lastModifiedTimes.keySet()) {
+                        if (!current.containsKey(templateName)) {
+                            listener.accept(templateName);
+                        }
+                    }
+                    lastModifiedTimes = current;
+                } catch (RuntimeException ex) {
+                    // Keep polling, as the database may only be unavailable for a while
+                    log.warning("The database templates could not be checked for changes: " + ex.getMessage());
+                }
+            }
+        } catch (InterruptedException ex) {
+            log.info("Stopped polling the database templates");
+        }
+    }
+
+    @Override
+    public Object findTemplateSource(String name) {
+        return renderTemplateBean.find(name);
+    }
+
+    @Override
+    public long getLastModified(Object templateSource) {
+        return ((RenderTemplate) templateSource).getLastModified().getTime();
+    }
+
+    @Override
+    public Reader getReader(Object templateSource, String encoding) {
+        return new StringReader(((RenderTemplate) templateSource).getContent());
+    }
+
+    @Override
+    public void closeTemplateSource(Object templateSource) {
+    }
+}
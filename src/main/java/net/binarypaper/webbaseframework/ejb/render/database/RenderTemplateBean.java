@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render.database;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import net.binarypaper.webbaseframework.entity.RenderTemplate;
+
+/**
+ * An EJB Stateless Session Bean that reads the templates stored in the
+ * RENDER_TEMPLATE table
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// EJB annotations
+@Stateless
+@LocalBean
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class RenderTemplateBean {
+
+    @PersistenceContext(unitName = "WebBaseFrameworkPU")
+    private EntityManager em;
+
+    /**
+     * Returns a template
+     *
+     * @param templateName The name of the template file
+     * @return The template, or null if it does not exist
+     */
+    public RenderTemplate find(String templateName) {
+        return em.find(RenderTemplate.class, templateName);
+    }
+
+    /**
+     * Returns the names of all the templates
+     *
+     * @return The template names
+     */
+    public List<String> getTemplateNames() {
+        return em.createNamedQuery("RenderTemplate.findAllNames", String.class).getResultList();
+    }
+
+    /**
+     * Returns the last modified time of all the templates
+     *
+     * @return The last modified time in milliseconds by template name
+     */
+    public Map<String, Long> getLastModifiedTimes() {
+        Map<String, Long> lastModifiedTimes = new HashMap<>();
+        for (Object[] row : em.createNamedQuery("RenderTemplate.findAllLastModified", Object[].class).getResultList()) {
+            lastModifiedTimes.put((String) row[0], ((Date) row[1]).getTime());
+        }
+        return lastModifiedTimes;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import lombok.Data;
+
+/**
+ * A record of a run of the audit retention job and of what it removed.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// JPA annotations
+@Entity
+@Table(name = "AUDIT_RETENTION_RUN")
+// Lombok annotations
+@Data
+public class AuditRetentionRun implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // JPA annotations
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "AUDIT_RETENTION_RUN_ID")
+    private Long id;
+
+    /**
+     * The date and time the retention job started
+     */
+    // JPA annotations
+    @Column(name = "RUN_DATE", nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date runDate;
+
+    /**
+     * Audit revisions created before the horizon were processed
+     */
+    // JPA annotations
+    @Column(name = "HORIZON", nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date horizon;
+
+    /**
+     * The retention mode, which is either delete or compact
+     */
+    // JPA annotations
+    @Column(name = "RETENTION_MODE", nullable = false, updatable = false)
+    private String mode;
+
+    /**
+     * The number of rows removed from the AUDIT_REVISION table
+     */
+    // JPA annotations
+    @Column(name = "REVISIONS_REMOVED", nullable = false, updatable = false)
+    private long revisionsRemoved;
+
+    /**
+     * The number of rows removed from the entity audit tables
+     */
+    // JPA annotations
+    @Column(name = "AUDIT_ROWS_REMOVED", nullable = false, updatable = false)
+    private long auditRowsRemoved;
+
+}
@@ -27,6 +27,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import lombok.Data;
@@ -38,7 +39,9 @@ import org.hibernate.envers.RevisionTimestamp;
 
 // JPA annotations
 @Entity
-@Table(name = "AUDIT_REVISION")
+@Table(name = "AUDIT_REVISION", indexes = {
+    @Index(name = "IDX_AUDIT_REVISION_TIMESTAMP", columnList = "REV_TIMESTAMP")
+})
 // Envers annotations
 @RevisionEntity(AuditRevisionListener.class)
 // Lombok annotations
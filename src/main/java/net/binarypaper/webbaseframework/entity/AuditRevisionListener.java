@@ -15,10 +15,7 @@
  */
 package net.binarypaper.webbaseframework.entity;
 
-import java.security.Principal;
 import org.hibernate.envers.RevisionListener;
-import org.keycloak.KeycloakPrincipal;
-import org.keycloak.KeycloakSecurityContext;
 
 /**
  * A custom Hibernate Envers RevisionListener used to add a user name to the
@@ -31,13 +28,7 @@ public class AuditRevisionListener implements RevisionListener {
     @Override
     public void newRevision(Object revisionEntity) {
         AuditRevision auditRevision = (AuditRevision) revisionEntity;
-        Principal principal = CurrentUser.getPrincipal();
-        String userName = principal.getName();
-        if (principal instanceof KeycloakPrincipal) {
-            KeycloakPrincipal<KeycloakSecurityContext> keycloakPrincipal = (KeycloakPrincipal<KeycloakSecurityContext>) principal;
-            userName = keycloakPrincipal.getKeycloakSecurityContext().getToken().getPreferredUsername();
-        }
-        auditRevision.setUserName(userName);
+        auditRevision.setUserName(CurrentUser.getAuditUserName());
     }
 
 }
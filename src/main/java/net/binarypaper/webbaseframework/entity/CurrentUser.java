@@ -16,23 +16,143 @@
 package net.binarypaper.webbaseframework.entity;
 
 import java.security.Principal;
+import java.util.concurrent.Callable;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.KeycloakSecurityContext;
 
 /**
- * Utility class used to pass the logged in user principal from the JAX-RS REST
- * resource to the Hibernate Envers RevisionListerer using a ThreadLocal
- * variable.
+ * Utility class used to pass the logged in user from the JAX-RS REST resource
+ * to the Hibernate Envers RevisionListerer using a ThreadLocal variable.
+ * <p>
+ * The user name is resolved once per request when the principal is set and is
+ * cleared by the CurrentUserFilter when the request completes. Work handed off
+ * to other threads should be wrapped with propagate in order to run as the
+ * same user.
  *
  * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
  */
 public class CurrentUser {
 
-    private static final ThreadLocal<Principal> PRINCIPAL = new ThreadLocal<>();
+    private static final ThreadLocal<CurrentUser> CURRENT_USER = new ThreadLocal<>();
+    private static final String SYSTEM_USER = ApplicationSettings.getString("audit.system_user");
 
+    private final Principal principal;
+    private final String userName;
+
+    private CurrentUser(Principal principal, String userName) {
+        this.principal = principal;
+        this.userName = userName;
+    }
+
+    /**
+     * Set the user principal of the logged in user for the current thread.
+     * <p>
+     * The user name is only resolved if the principal differs from the
+     * principal already set.
+     *
+     * @param principal The user principal of the currently logged in user
+     */
     public static void setPrincipal(Principal principal) {
-        PRINCIPAL.set(principal);
+        CurrentUser currentUser = CURRENT_USER.get();
+        if ((currentUser != null) && (currentUser.principal == principal)) {
+            return;
+        }
+        if (principal == null) {
+            CURRENT_USER.remove();
+        } else {
+            CURRENT_USER.set(new CurrentUser(principal, resolveUserName(principal)));
+        }
+    }
+
+    /**
+     * Returns the user name of the logged in user of the current thread
+     *
+     * @return The user name, or null if no user principal has been set
+     */
+    public static String getUserName() {
+        CurrentUser currentUser = CURRENT_USER.get();
+        return currentUser == null ? null : currentUser.userName;
+    }
+
+    /**
+     * Returns the user name recorded in audit revisions, which is the
+     * audit.system_user setting for work that does not run as a logged in
+     * user, such as timers and message driven beans
+     *
+     * @return The user name of the logged in user, or the system user name
+     */
+    public static String getAuditUserName() {
+        String userName = getUserName();
+        return userName == null ? SYSTEM_USER : userName;
+    }
+
+    /**
+     * Remove the logged in user from the current thread
+     */
+    public static void clear() {
+        CURRENT_USER.remove();
+    }
+
+    /**
+     * Wrap a task so that it runs as the logged in user of the current thread
+     *
+     * @param task The task to run on another thread
+     * @return The wrapped task
+     */
+    public static Runnable propagate(Runnable task) {
+        CurrentUser currentUser = CURRENT_USER.get();
+        return () -> {
+            CurrentUser previous = CURRENT_USER.get();
+            CURRENT_USER.set(currentUser);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Wrap a task so that it runs as the logged in user of the current thread
+     *
+     * @param <V> The result type of the task
+     * @param task The task to run on another thread
+     * @return The wrapped task
+     */
+    public static <V> Callable<V> propagate(Callable<V> task) {
+        CurrentUser currentUser = CURRENT_USER.get();
+        return () -> {
+            CurrentUser previous = CURRENT_USER.get();
+            CURRENT_USER.set(currentUser);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Returns the user name to record for the specified user principal
+     *
+     * @param principal The user principal of the currently logged in user
+     * @return The Keycloak preferred user name, or the principal name for other
+     * principals
+     */
+    public static String resolveUserName(Principal principal) {
+        if (principal instanceof KeycloakPrincipal) {
+            KeycloakPrincipal<KeycloakSecurityContext> keycloakPrincipal = (KeycloakPrincipal<KeycloakSecurityContext>) principal;
+            return keycloakPrincipal.getKeycloakSecurityContext().getToken().getPreferredUsername();
+        }
+        return principal.getName();
     }
 
-    public static Principal getPrincipal() {
-        return PRINCIPAL.get();
+    private static void restore(CurrentUser previous) {
+        if (previous == null) {
+            CURRENT_USER.remove();
+        } else {
+            CURRENT_USER.set(previous);
+        }
     }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.entity;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import lombok.Data;
+
+/**
+ * The delivery status of a queued email message.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// JPA annotations
+@Entity
+@Table(name = "EMAIL_DELIVERY")
+@NamedQueries({
+    @NamedQuery(name = "EmailDelivery.findSent",
+      query = "SELECT d.trackingId FROM EmailDelivery d WHERE d.trackingId IN :trackingIds AND d.status = :status")
+})
+// Jackson annotations
+@JsonInclude(JsonInclude.Include.NON_NULL)
+// Lombok annotations
+@Data
+public class EmailDelivery implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The email message is queued to be sent
+     */
+    public static final String QUEUED = "QUEUED";
+
+    /**
+     * The email message was sent
+     */
+    public static final String SENT = "SENT";
+
+    /**
+     * The email message could not be sent and will not be retried
+     */
+    public static final String FAILED = "FAILED";
+
+    /**
+     * The tracking id generated when the email message was queued
+     */
+    // JPA annotations
+    @Id
+    @Column(name = "TRACKING_ID", length = 36)
+    // Jackson annotations
+    @JsonProperty("tracking_id")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The tracking id returned when the email was queued",
+      readOnly = true,
+      example = "0f8fad5b-d9cb-469f-a165-70867728950e"
+    )
+    private String trackingId;
+
+    /**
+     * The name of the user that queued the email message
+     */
+    // JPA annotations
+    @Column(name = "USER_NAME", updatable = false)
+    // Jackson annotations
+    @JsonProperty("user_name")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The name of the user that queued the email",
+      readOnly = true,
+      example = "albert"
+    )
+    private String userName;
+
+    /**
+     * The comma separated list of email addresses
+     */
+    // JPA annotations
+    @Column(name = "TO_ADDRESS", length = 1000, updatable = false)
+    // Jackson annotations
+    @JsonProperty("email_to")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The comma separated list of email addresses",
+      readOnly = true,
+      example = "albert@example.com"
+    )
+    private String toAddress;
+
+    /**
+     * The email subject
+     */
+    // JPA annotations
+    @Column(name = "SUBJECT", length = 1000, updatable = false)
+    // Jackson annotations
+    @JsonProperty("email_subject")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The email subject",
+      readOnly = true,
+      example = "Test JSON to HTML Email"
+    )
+    private String subject;
+
+    /**
+     * The delivery status, which is QUEUED, SENT or FAILED
+     */
+    // JPA annotations
+    @Column(name = "STATUS", length = 10, nullable = false)
+    // Jackson annotations
+    @JsonProperty("status")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The delivery status, which is QUEUED, SENT or FAILED",
+      readOnly = true,
+      example = "SENT"
+    )
+    private String status;
+
+    /**
+     * The number of failed attempts to send the email message
+     */
+    // JPA annotations
+    @Column(name = "ATTEMPTS", nullable = false)
+    // Jackson annotations
+    @JsonProperty("attempts")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The number of failed attempts to send the email",
+      readOnly = true,
+      example = "0"
+    )
+    private int attempts;
+
+    /**
+     * The reason of the last failed attempt
+     */
+    // JPA annotations
+    @Column(name = "FAILURE_REASON", length = 1000)
+    // Jackson annotations
+    @JsonProperty("failure_reason")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The reason of the last failed attempt",
+      readOnly = true,
+      example = "Invalid Addresses"
+    )
+    private String failureReason;
+
+    /**
+     * The date and time the email message was queued
+     */
+    // JPA annotations
+    @Column(name = "QUEUED_AT", nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    // Jackson annotations
+    @JsonProperty("queued_at")
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss z", timezone = "GMT+02:00")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The date and time the email was queued",
+      readOnly = true,
+      example = "2016-06-10 12:34:39 GMT+02:00"
+    )
+    private Date queuedAt;
+
+    /**
+     * The date and time the email message was sent
+     */
+    // JPA annotations
+    @Column(name = "SENT_AT")
+    @Temporal(TemporalType.TIMESTAMP)
+    // Jackson annotations
+    @JsonProperty("sent_at")
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss z", timezone = "GMT+02:00")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The date and time the email was sent",
+      readOnly = true,
+      example = "2016-06-10 12:34:41 GMT+02:00"
+    )
+    private Date sentAt;
+
+    /**
+     * The date and time the delivery status last changed
+     */
+    // JPA annotations
+    @Column(name = "UPDATED_AT", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    // Jackson annotations
+    @JsonProperty("updated_at")
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss z", timezone = "GMT+02:00")
+    // Swagger annotations
+    @ApiModelProperty(
+      value = "The date and time the delivery status last changed",
+      readOnly = true,
+      example = "2016-06-10 12:34:41 GMT+02:00"
+    )
+    private Date updatedAt;
+
+}
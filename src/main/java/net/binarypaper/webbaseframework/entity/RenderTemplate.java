@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import lombok.Data;
+
+/**
+ * A FreeMarker template file stored in the database.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// JPA annotations
+@Entity
+@Table(name = "RENDER_TEMPLATE")
+@NamedQueries({
+    @NamedQuery(name = "RenderTemplate.findAllNames",
+      query = "SELECT t.name FROM RenderTemplate t ORDER BY t.name"),
+    @NamedQuery(name = "RenderTemplate.findAllLastModified",
+      query = "SELECT t.name, t.lastModified FROM RenderTemplate t")
+})
+// Lombok annotations
+@Data
+public class RenderTemplate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the template file, such as BasicJSON.html
+     */
+    // JPA annotations
+    @Id
+    @Column(name = "TEMPLATE_NAME", length = 255)
+    private String name;
+
+    /**
+     * The FreeMarker template source
+     */
+    // JPA annotations
+    @Lob
+    @Column(name = "CONTENT", nullable = false)
+    private String content;
+
+    /**
+     * The date and time the template was last changed
+     */
+    // JPA annotations
+    @Column(name = "LAST_MODIFIED", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastModified;
+
+}
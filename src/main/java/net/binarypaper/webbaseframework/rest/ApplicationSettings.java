@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.rest;
+
+import java.util.ResourceBundle;
+
+/**
+ * Utility class used to read the application settings from the
+ * ApplicationSettings.properties file.
+ * <p>
+ * A setting may be overridden on the application server by defining a system
+ * property with the same name as the setting.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class ApplicationSettings {
+
+    private static final ResourceBundle SETTINGS = ResourceBundle.getBundle("ApplicationSettings");
+
+    /**
+     * Returns the value of a setting
+     *
+     * @param key The name of the setting
+     * @return The value of the setting
+     */
+    public static String getString(String key) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = SETTINGS.getString(key);
+        }
+        return value.trim();
+    }
+
+    /**
+     * Returns the value of a setting, or the default value if the setting has
+     * not been defined
+     *
+     * @param key The name of the setting
+     * @param defaultValue The value to return if the setting is not defined
+     * @return The value of the setting
+     */
+    public static String getString(String key, String defaultValue) {
+        if ((System.getProperty(key) == null) && !SETTINGS.containsKey(key)) {
+            return defaultValue;
+        }
+        return getString(key);
+    }
+
+    public static int getInt(String key) {
+        return Integer.parseInt(getString(key));
+    }
+
+    public static long getLong(String key) {
+        return Long.parseLong(getString(key));
+    }
+
+    public static boolean getBoolean(String key) {
+        return Boolean.parseBoolean(getString(key));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Class used to marshal the updatable field changes of an entity between two
+ * audit revisions as a JSON patch like document for a REST response
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditRevisionDiff {
+
+    /**
+     * The revision number the changes are compared from
+     *
+     * @return The from revision number
+     */
+    // Jackson annotations
+    @JsonProperty("from_rev")
+    // Swagger annotations
+    @ApiModelProperty(value = "The revision number the changes are compared from", example = "1", readOnly = true)
+    private Long fromRev;
+
+    /**
+     * The revision number the changes are compared to
+     *
+     * @return The to revision number
+     */
+    // Jackson annotations
+    @JsonProperty("to_rev")
+    // Swagger annotations
+    @ApiModelProperty(value = "The revision number the changes are compared to", example = "2", readOnly = true)
+    private Long toRev;
+
+    /**
+     * The updatable fields that changed between the two revisions
+     *
+     * @return The list of field changes
+     */
+    // Swagger annotations
+    @ApiModelProperty(value = "The updatable fields that changed between the two revisions", readOnly = true)
+    private List<Change> changes = new ArrayList<>();
+
+    /**
+     * The change of a single updatable field
+     */
+    // Lombok annotations
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Change {
+
+        /**
+         * The JSON pointer of the changed field
+         *
+         * @return The path of the field
+         */
+        // Swagger annotations
+        @ApiModelProperty(value = "The JSON pointer of the changed field", example = "/display_value", readOnly = true)
+        private String path;
+
+        /**
+         * The value of the field at the from revision
+         *
+         * @return The old value
+         */
+        // Swagger annotations
+        @ApiModelProperty(value = "The value of the field at the from revision", readOnly = true)
+        private Object from;
+
+        /**
+         * The value of the field at the to revision
+         *
+         * @return The new value
+         */
+        // Swagger annotations
+        @ApiModelProperty(value = "The value of the field at the to revision", readOnly = true)
+        private Object value;
+
+    }
+
+}
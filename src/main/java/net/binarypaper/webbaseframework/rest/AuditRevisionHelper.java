@@ -15,13 +15,21 @@
  */
 package net.binarypaper.webbaseframework.rest;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import javax.persistence.EntityManager;
+import javax.ws.rs.core.Response.Status;
 import lombok.extern.java.Log;
 import net.binarypaper.webbaseframework.entity.AuditRevision;
+import net.binarypaper.webbaseframework.entity.Updatable;
 import org.hibernate.envers.AuditReader;
 import org.hibernate.envers.AuditReaderFactory;
 import org.hibernate.envers.query.AuditEntity;
@@ -37,6 +45,8 @@ import org.hibernate.envers.query.AuditEntity;
 @Log
 public class AuditRevisionHelper<T> {
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     private final Class<T> entityClass;
     private final String revisionSetMethodName;
 
@@ -97,4 +107,73 @@ public class AuditRevisionHelper<T> {
         }
         return entityList;
     }
+
+    /**
+     * Compare the updatable fields of an entity at two audit revisions.
+     * <p>
+     * Only the updatable fields whose values differ between the two revisions
+     * are returned, using the JSON property name of the field as the path. The
+     * values are compared and returned as they are serialized in the audit
+     * revision view of the entity, so that they match the REST representation.
+     *
+     * @param em The entity manager to use
+     * @param id The primary key of the entity
+     * @param fromRev The revision number to compare from
+     * @param toRev The revision number to compare to
+     * @return The changes of the updatable fields between the revisions
+     * @throws BusinessLogicException
+     */
+    public AuditRevisionDiff getAuditRevisionDiff(EntityManager em, Object id, Long fromRev, Long toRev) throws BusinessLogicException {
+        if ((fromRev == null) || (toRev == null) || (fromRev >= toRev)) {
+            throw new BusinessLogicException("F003", Status.BAD_REQUEST.getStatusCode());
+        }
+        AuditReader reader = AuditReaderFactory.get(em);
+        T fromEntity = reader.find(entityClass, id, fromRev);
+        T toEntity = reader.find(entityClass, id, toRev);
+        if ((fromEntity == null) || (toEntity == null)) {
+            throw new BusinessLogicException("F004", Status.NOT_FOUND.getStatusCode());
+        }
+        AuditRevisionDiff auditRevisionDiff = new AuditRevisionDiff();
+        auditRevisionDiff.setFromRev(fromRev);
+        auditRevisionDiff.setToRev(toRev);
+        JsonNode fromJson = toJson(fromEntity);
+        JsonNode toJson = toJson(toEntity);
+        for (Class<?> type = entityClass; type != null; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.getAnnotation(Updatable.class) == null) {
+                    continue;
+                }
+                String propertyName = getPropertyName(field);
+                JsonNode fromValue = getValue(fromJson, propertyName);
+                JsonNode toValue = getValue(toJson, propertyName);
+                if (!Objects.equals(fromValue, toValue)) {
+                    auditRevisionDiff.getChanges().add(new AuditRevisionDiff.Change("/" + propertyName, fromValue, toValue));
+                }
+            }
+        }
+        return auditRevisionDiff;
+    }
+
+    private static JsonNode getValue(JsonNode json, String propertyName) {
+        // Null properties may be omitted from the JSON
+        JsonNode value = json.get(propertyName);
+        return ((value == null) || value.isNull()) ? null : value;
+    }
+
+    private JsonNode toJson(T entity) {
+        try {
+            return OBJECT_MAPPER.readTree(OBJECT_MAPPER.writerWithView(AuditRevision.class).writeValueAsBytes(entity));
+        } catch (IOException ex) {
+            log.severe(ex.getMessage());
+            throw new RuntimeException("The entity class " + entityClass.getName() + " could not be serialized");
+        }
+    }
+
+    private String getPropertyName(Field field) {
+        JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+        if ((jsonProperty != null) && !jsonProperty.value().isEmpty()) {
+            return jsonProperty.value();
+        }
+        return field.getName();
+    }
 }
@@ -16,7 +16,6 @@
 package net.binarypaper.webbaseframework.rest;
 
 import java.lang.reflect.Field;
-import java.security.Principal;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -30,7 +29,6 @@ import javax.persistence.Version;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.core.Response.Status;
 import lombok.extern.java.Log;
-import net.binarypaper.webbaseframework.entity.CurrentUser;
 import net.binarypaper.webbaseframework.entity.Updatable;
 
 /**
@@ -55,12 +53,10 @@ public class PersistenceHelper<T> {
      *
      * @param entityClass The entity class being persisted
      * @param em The entity manager to use
-     * @param principal The user principal of the currently logged in user
      */
-    public PersistenceHelper(Class<T> entityClass, EntityManager em, Principal principal) {
+    public PersistenceHelper(Class<T> entityClass, EntityManager em) {
         this.entityClass = entityClass;
         this.em = em;
-        CurrentUser.setPrincipal(principal);
     }
 
     /**
@@ -35,9 +35,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import javax.annotation.Resource;
 import javax.annotation.security.RolesAllowed;
-import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -63,6 +61,7 @@ import lombok.extern.java.Log;
 import net.binarypaper.webbaseframework.entity.AuditRevision;
 import net.binarypaper.webbaseframework.entity.DatedEntity;
 import net.binarypaper.webbaseframework.entity.lookup.LookupValue;
+import net.binarypaper.webbaseframework.rest.AuditRevisionDiff;
 import net.binarypaper.webbaseframework.rest.AuditRevisionHelper;
 import net.binarypaper.webbaseframework.rest.BusinessLogicException;
 import net.binarypaper.webbaseframework.rest.PersistenceHelper;
@@ -100,9 +99,6 @@ public class LookupValueResource {
     @Context
     private UriInfo uriInfo;
 
-    @Resource
-    private SessionContext sessionContext;
-
     // JAX-RS annotations
     @POST
     // Security annotations
@@ -144,7 +140,7 @@ public class LookupValueResource {
                 throw new BusinessLogicException("0001", Status.BAD_REQUEST.getStatusCode());
             }
         }
-        PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em, sessionContext.getCallerPrincipal());
+        PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em);
         persistenceHelper.addConstraintValidation("UC_LOOKUP_LIST_VALUE", "0004");
         lookupValue = persistenceHelper.persistEntity(lookupValue);
         UriBuilder uriBuilder = uriInfo.getAbsolutePathBuilder();
@@ -261,7 +257,7 @@ public class LookupValueResource {
         if (fromDB == null) {
             throw new BusinessLogicException("0006", Status.BAD_REQUEST.getStatusCode());
         }
-        PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em, sessionContext.getCallerPrincipal());
+        PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em);
         persistenceHelper.addConstraintValidation("UC_LOOKUP_LIST_VALUE", "0004");
         fromDB = persistenceHelper.updateEntity(fromDB, lookupValue);
         return Response.accepted(fromDB).build();
@@ -296,7 +292,7 @@ public class LookupValueResource {
         if (lookupValue.getParent() != null) {
             lookupValue.getParent().removeChild(lookupValue);
         }
-        PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em, sessionContext.getCallerPrincipal());
+        PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em);
         persistenceHelper.addConstraintValidation("FK_LOOKUP_VALUE_PARENT", "0008");
         persistenceHelper.deleteEntity(lookupValue);
         return Response.ok().build();
@@ -333,6 +329,38 @@ public class LookupValueResource {
         return Response.ok(revisions).build();
     }
 
+    // JAX-RS annotations
+    @Path("{lookup_value_id}/revisions/diff")
+    @GET
+    // Security annotations
+    @RolesAllowed("view_audit_revisions")
+    // Swagger annotations
+    @ApiOperation(value = "Get the changes of a lookup value between two audit database revisions",
+            notes = "Get the updatable fields of a lookup value that changed between two audit database revisions",
+            code = 200,
+            response = AuditRevisionDiff.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 400, message = "The from and to revisions are invalid", response = ResponseError.class)
+        ,
+        @ApiResponse(code = 403, message = "Not authorized to call the api")
+        ,
+        @ApiResponse(code = 404, message = "The lookup value does not exist at the from or to revision", response = ResponseError.class)
+    })
+    public Response getLookupValueRevisionDiff(
+            @PathParam("lookup_value_id")
+            @ApiParam(value = "The id of the lookup value")
+            final Long lookupValueId,
+            @QueryParam("from")
+            @ApiParam(value = "The revision number to compare from", required = true)
+            final Long fromRev,
+            @QueryParam("to")
+            @ApiParam(value = "The revision number to compare to", required = true)
+            final Long toRev) throws BusinessLogicException {
+        AuditRevisionHelper<LookupValue> auditRevisionHelper = new AuditRevisionHelper<>(LookupValue.class);
+        return Response.ok(auditRevisionHelper.getAuditRevisionDiff(em, lookupValueId, fromRev, toRev)).build();
+    }
+
     // JAX-RS annotations
     @Path("csv_upload")
     @POST
@@ -398,7 +426,7 @@ public class LookupValueResource {
                         parent.addChild(lookupValue);
                     }
                     System.out.println(lookupValue);
-                    PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em, sessionContext.getCallerPrincipal());
+                    PersistenceHelper<LookupValue> persistenceHelper = new PersistenceHelper<>(LookupValue.class, em);
                     persistenceHelper.addConstraintValidation("UC_LOOKUP_LIST_VALUE", "0011");
                     lookupValue = persistenceHelper.persistEntity(lookupValue);
                     lookupValues.add(lookupValue);
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.rest.notification;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import freemarker.template.Template;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.ejb.render.FreeMarkerRenderBean;
+import net.binarypaper.webbaseframework.ejb.render.JsonDataModel;
+import net.binarypaper.webbaseframework.rest.BusinessLogicException;
+import net.binarypaper.webbaseframework.rest.BusinessLogicExceptionMapper;
+import net.binarypaper.webbaseframework.rest.ResponseError;
+
+/**
+ * Renders a batch of JSON input data with one template and streams the results
+ * as newline delimited JSON.
+ * <p>
+ * The input data is read one item at a time and at most the configured number
+ * of items are rendered in parallel. The results are written in the order of
+ * the input data, each with either the rendered document or the error of the
+ * item, so an item that fails unexpectedly does not end the batch.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Log
+public class BatchRenderOutput implements StreamingOutput {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private final FreeMarkerRenderBean freeMarkerRenderBean;
+    private final ExecutorService executorService;
+    private final int parallelism;
+    private final Template template;
+    private final InputStream input;
+    private final boolean array;
+
+    /**
+     * Create the output of a batch render
+     *
+     * @param freeMarkerRenderBean The bean used to render the items
+     * @param executorService The executor the items are rendered on
+     * @param parallelism The maximum number of items rendered in parallel
+     * @param template The template used to render the items
+     * @param input The batch input data
+     * @param array True if the input data is a JSON array, false if it is
+     * newline delimited JSON
+     */
+    public BatchRenderOutput(FreeMarkerRenderBean freeMarkerRenderBean, ExecutorService executorService, int parallelism,
+      Template template, InputStream input, boolean array) {
+        this.freeMarkerRenderBean = freeMarkerRenderBean;
+        this.executorService = executorService;
+        this.parallelism = Math.max(1, parallelism);
+        this.template = template;
+        this.input = input;
+        this.array = array;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        Deque<Future<BatchRenderResult>> pending = new ArrayDeque<>();
+        try (JsonDataModel.BatchReader reader = JsonDataModel.createBatchReader(input, array, template.getObjectWrapper())) {
+            int index = 0;
+            while (true) {
+                TemplateModel data;
+                try {
+                    data = reader.next();
+                } catch (JsonProcessingException ex) {
+                    // The rest of the input data cannot be read after a syntax error
+                    writeResults(pending, 0, output);
+                    write(createError(index, new BusinessLogicException("FMR5",
+                      "The input JSON data is invalid: " + ex.getOriginalMessage(), Response.Status.BAD_REQUEST.getStatusCode())), output);
+                    break;
+                } catch (TemplateModelException ex) {
+                    writeResults(pending, 0, output);
+                    write(createError(index, new BusinessLogicException("FMR5", ex.getMessage(), Response.Status.BAD_REQUEST.getStatusCode())), output);
+                    break;
+                }
+                if (data == null) {
+                    writeResults(pending, 0, output);
+                    break;
+                }
+                pending.add(executorService.submit(new RenderTask(index++, data)));
+                writeResults(pending, parallelism - 1, output);
+            }
+        } finally {
+            for (Future<BatchRenderResult> future : pending) {
+                future.cancel(true);
+            }
+        }
+        output.flush();
+    }
+
+    private void writeResults(Deque<Future<BatchRenderResult>> pending, int maxPending, OutputStream output) throws IOException {
+        while (pending.size() > maxPending) {
+            try {
+                write(pending.remove().get(), output);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("The batch render was interrupted", ex);
+            } catch (ExecutionException ex) {
+                throw new IOException("The batch render failed", ex.getCause());
+            }
+        }
+    }
+
+    private void write(BatchRenderResult result, OutputStream output) throws IOException {
+        output.write(OBJECT_MAPPER.writeValueAsBytes(result));
+        output.write(NEW_LINE);
+    }
+
+    private static BatchRenderResult createError(int index, BusinessLogicException ex) {
+        BatchRenderResult result = new BatchRenderResult();
+        result.setIndex(index);
+        result.setError((ResponseError) new BusinessLogicExceptionMapper().toResponse(ex).getEntity());
+        return result;
+    }
+
+    private class RenderTask implements Callable<BatchRenderResult> {
+
+        private final int index;
+        private final TemplateModel data;
+
+        RenderTask(int index, TemplateModel data) {
+            this.index = index;
+            this.data = data;
+        }
+
+        @Override
+        public BatchRenderResult call() {
+            Map<String, Object> templateData = new HashMap<>();
+            templateData.put("data", data);
+            StringWriter writer = new StringWriter();
+            try {
+                freeMarkerRenderBean.process(template, templateData, writer);
+            } catch (BusinessLogicException ex) {
+                return createError(index, ex);
+            } catch (IOException | RuntimeException ex) {
+                log.severe("Item " + index + " of the batch render of template " + template.getName() + " failed: " + ex);
+                return createError(index, new BusinessLogicException("FMR5", ex.getMessage(), Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()));
+            }
+            BatchRenderResult result = new BatchRenderResult();
+            result.setIndex(index);
+            result.setDocument(writer.toString());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.rest.notification;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import net.binarypaper.webbaseframework.rest.ResponseError;
+
+/**
+ * Class used to marshal the result of rendering one item of a batch as a line
+ * of a newline delimited JSON response
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+// Jackson annotations
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchRenderResult {
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The zero based position of the item in the batch input data", example = "0", readOnly = true)
+    private int index;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The rendered document", readOnly = true)
+    private String document;
+
+    // Swagger annotations
+    @ApiModelProperty(value = "The error if the item could not be rendered", readOnly = true)
+    private ResponseError error;
+
+}
@@ -15,41 +15,63 @@
  */
 package net.binarypaper.webbaseframework.rest.notification;
 
+import freemarker.template.Template;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import io.swagger.annotations.Authorization;
-import java.security.Principal;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.UUID;
 import javax.annotation.Resource;
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.EJB;
-import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import javax.jms.JMSContext;
-import javax.jms.ObjectMessage;
 import javax.jms.Queue;
-import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
-import javax.ws.rs.core.Context;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import lombok.extern.java.Log;
+import net.binarypaper.webbaseframework.ejb.email.EmailBodyStore;
+import net.binarypaper.webbaseframework.ejb.email.EmailDeliveryBean;
 import net.binarypaper.webbaseframework.ejb.email.EmailMessage;
+import net.binarypaper.webbaseframework.ejb.email.EmailMessageCodec;
+import net.binarypaper.webbaseframework.ejb.email.MailMergeBean;
+import net.binarypaper.webbaseframework.ejb.email.MailMergeJob;
+import net.binarypaper.webbaseframework.ejb.render.AlternativeDocuments;
+import net.binarypaper.webbaseframework.ejb.render.FreeMarkerEngineBean;
 import net.binarypaper.webbaseframework.ejb.render.FreeMarkerRenderBean;
+import net.binarypaper.webbaseframework.ejb.render.RenderCacheBean;
+import net.binarypaper.webbaseframework.ejb.render.RenderCacheStatistics;
+import net.binarypaper.webbaseframework.ejb.render.TemplateRegistryStatus;
+import net.binarypaper.webbaseframework.entity.CurrentUser;
+import net.binarypaper.webbaseframework.entity.EmailDelivery;
+import net.binarypaper.webbaseframework.rest.ApplicationSettings;
 import net.binarypaper.webbaseframework.rest.BusinessLogicException;
+import net.binarypaper.webbaseframework.rest.BusinessLogicExceptionMapper;
 import net.binarypaper.webbaseframework.rest.ResponseError;
 import net.binarypaper.webbaseframework.rest.SwaggerBootstrap;
-import org.keycloak.KeycloakPrincipal;
-import org.keycloak.KeycloakSecurityContext;
 
 /**
  * Render Notification REST Web Service
@@ -70,9 +92,26 @@ import org.keycloak.KeycloakSecurityContext;
 @Log
 public class RenderNotificationResource {
 
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String TEXT_CSV = "text/csv";
+    private static final String TRACKING_ID_HEADER = "Email-Tracking-Id";
+    private static final int BATCH_PARALLELISM = ApplicationSettings.getInt("render.batch.parallelism");
+
     @EJB
     private FreeMarkerRenderBean freeMarkerRenderBean;
 
+    @EJB
+    private FreeMarkerEngineBean freeMarkerEngineBean;
+
+    @EJB
+    private RenderCacheBean renderCacheBean;
+
+    @EJB
+    private EmailDeliveryBean emailDeliveryBean;
+
+    @EJB
+    private MailMergeBean mailMergeBean;
+
     @Inject
     private JMSContext jmsContext;
 
@@ -80,10 +119,7 @@ public class RenderNotificationResource {
     private Queue emailQueue;
 
     @Resource
-    private SessionContext sessionContext;
-    
-    @Context
-    private ServletContext servletContext;
+    private ManagedExecutorService executorService;
 
     // JAX-RS annotations
     @Path("{templateName}")
@@ -95,13 +131,21 @@ public class RenderNotificationResource {
       notes = "<p>Render a document using the specified template name data</p>"
       + "<p>The REST service can output a rendered document in HTML or plain text format</p>"
       + "<p>The REST service can consume input data in JSON or XML format</p>"
-      + "<p>The rendered document can optionally be emailed if a to email addess and subject line is specified</p>",
+      + "<p>The rendered document can optionally be emailed if a to email addess and subject line is specified</p>"
+      + "<p>With email_only=true the document is only emailed. The template is validated and the input data is queued "
+      + "to be rendered when the email is sent. The response is 202 Accepted with the tracking id of the email</p>"
+      + "<p>The tracking id of an emailed document is returned in the Email-Tracking-Id header</p>"
+      + "<p>With email_multipart=true the sibling .html and .txt templates are both rendered with the same input data "
+      + "and emailed as a multipart/alternative email</p>"
+      + "<p>Rendered documents are cached when the render cache is enabled, unless a Cache-Control: no-cache header is specified</p>",
       response = String.class
     )
     @ApiResponses(value = {
+        @ApiResponse(code = 202, message = "The email was queued to be rendered and sent"),
         @ApiResponse(code = 400, message = "The input data is invalid", response = ResponseError.class),
         @ApiResponse(code = 403, message = "Not authorized to call the api"),
-        @ApiResponse(code = 404, message = "The template name is invalid", response = ResponseError.class)
+        @ApiResponse(code = 404, message = "The template name is invalid", response = ResponseError.class),
+        @ApiResponse(code = 503, message = "The render exceeded its time budget", response = ResponseError.class)
     })
     public Response renderDocument(
       @PathParam("templateName")
@@ -110,31 +154,357 @@ public class RenderNotificationResource {
       @HeaderParam("content-type")
       @ApiParam(hidden = true)
       final String contentType,
+      @HeaderParam("Cache-Control")
+      @ApiParam(value = "Specify no-cache to bypass the render cache")
+      final String cacheControl,
       @QueryParam("email_to")
       @ApiParam(value = "The comma separated list of email addresses")
       final String emailTo,
       @QueryParam("email_subject")
       @ApiParam(value = "The email subject of the email")
       final String emailSubject,
+      @QueryParam("email_only")
+      @ApiParam(value = "Only email the document, rendering it when the email is sent")
+      final boolean emailOnly,
+      @QueryParam("email_multipart")
+      @ApiParam(value = "Email both the sibling .html and .txt templates as a multipart/alternative email")
+      final boolean emailMultipart,
       String data) throws BusinessLogicException {
-        // Render the output document
-        String renderedDocument = freeMarkerRenderBean.render(servletContext, templateName, contentType, data);
-        if ((emailTo != null) && (emailSubject != null)) {
-            Principal principal = sessionContext.getCallerPrincipal();
-            String userName = principal.getName();
-            if (principal instanceof KeycloakPrincipal) {
-                KeycloakPrincipal<KeycloakSecurityContext> keycloakPrincipal = (KeycloakPrincipal<KeycloakSecurityContext>) principal;
-                userName = keycloakPrincipal.getKeycloakSecurityContext().getToken().getPreferredUsername();
+        if (emailOnly) {
+            return queueEmail(templateName, contentType, emailTo, emailSubject, emailMultipart, data);
+        }
+        if (emailMultipart && (emailTo != null) && (emailSubject != null)) {
+            AlternativeDocuments documents = freeMarkerRenderBean.renderAlternatives(templateName, contentType, data);
+            EmailMessage emailMessage = createEmailMessage(emailTo, emailSubject);
+            emailMessage.setBody(documents.getHtml());
+            emailMessage.setTextBody(documents.getText());
+            sendEmail(emailMessage);
+            return Response.ok(templateName.endsWith(".txt") ? documents.getText() : documents.getHtml())
+              .header(TRACKING_ID_HEADER, emailMessage.getTrackingId())
+              .build();
+        }
+        String renderedDocument = null;
+        String cacheKey = null;
+        if (renderCacheBean.isEnabled() && !isNoCache(cacheControl)) {
+            cacheKey = renderCacheBean.createKey(templateName, freeMarkerEngineBean.getLastModified(templateName), contentType, data);
+            renderedDocument = renderCacheBean.get(cacheKey);
+        }
+        if ((renderedDocument == null) && (cacheKey != null)) {
+            // Render the output document to a String so that it can be cached
+            renderedDocument = freeMarkerRenderBean.render(templateName, contentType, data);
+            renderCacheBean.put(cacheKey, renderedDocument);
+        }
+        if ((emailTo == null) || (emailSubject == null)) {
+            if (renderedDocument != null) {
+                return Response.ok(renderedDocument).build();
             }
-            EmailMessage emailMessage = new EmailMessage();
-            emailMessage.setUserName(userName);
-            emailMessage.setToAddress(emailTo);
-            emailMessage.setSubject(emailSubject);
-            emailMessage.setBody(renderedDocument);
-            ObjectMessage message = jmsContext.createObjectMessage(emailMessage);
-            jmsContext.createProducer().send(emailQueue, message);
-        }
-        return Response.ok(renderedDocument).build();
+            // Stream the output document directly to the response
+            Template template = freeMarkerRenderBean.getTemplate(templateName);
+            Map<String, Object> templateData = freeMarkerRenderBean.createDataModel(templateName, contentType, data);
+            StreamingOutput output = outputStream -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                try {
+                    freeMarkerRenderBean.process(template, templateData, writer);
+                } catch (BusinessLogicException ex) {
+                    throw new WebApplicationException(ex, new BusinessLogicExceptionMapper().toResponse(ex));
+                }
+                writer.flush();
+            };
+            return Response.ok(output).build();
+        }
+        if (renderedDocument == null) {
+            // Render the output document to a String as it is also emailed
+            renderedDocument = freeMarkerRenderBean.render(templateName, contentType, data);
+        }
+        EmailMessage emailMessage = createEmailMessage(emailTo, emailSubject);
+        emailMessage.setBody(renderedDocument);
+        sendEmail(emailMessage);
+        return Response.ok(renderedDocument).header(TRACKING_ID_HEADER, emailMessage.getTrackingId()).build();
+    }
+
+    /**
+     * Queue a rendered email message to be sent
+     *
+     * @param emailMessage The email message
+     * @throws BusinessLogicException If a large body cannot be stored
+     */
+    private void sendEmail(EmailMessage emailMessage) throws BusinessLogicException {
+        try {
+            EmailBodyStore.checkIn(emailMessage);
+        } catch (IOException ex) {
+            log.severe("The email body could not be stored: " + ex.getMessage());
+            throw new BusinessLogicException("FMR10", Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+        }
+        emailDeliveryBean.queued(emailMessage);
+        jmsContext.createProducer().send(emailQueue, EmailMessageCodec.createMessage(jmsContext, emailMessage));
+    }
+
+    /**
+     * Queue an email message to be rendered by the consumer of the email queue
+     *
+     * @return The 202 Accepted response with the tracking id of the email
+     * message
+     * @throws BusinessLogicException If the email parameters are missing, the
+     * template is invalid or the input data is too large
+     */
+    private Response queueEmail(String templateName, String contentType, String emailTo, String emailSubject, boolean multipart, String data) throws BusinessLogicException {
+        if ((emailTo == null) || (emailSubject == null)) {
+            throw new BusinessLogicException("FMR11", Response.Status.BAD_REQUEST.getStatusCode());
+        }
+        if (multipart) {
+            freeMarkerRenderBean.checkAlternatives(templateName);
+        } else {
+            freeMarkerRenderBean.getTemplate(templateName);
+        }
+        freeMarkerRenderBean.checkInputSize(data);
+        EmailMessage emailMessage = createEmailMessage(emailTo, emailSubject);
+        emailMessage.setTemplateName(templateName);
+        emailMessage.setContentType(contentType);
+        emailMessage.setData(data);
+        emailMessage.setMultipart(multipart);
+        emailDeliveryBean.queued(emailMessage);
+        jmsContext.createProducer().send(emailQueue, EmailMessageCodec.createMessage(jmsContext, emailMessage));
+        return Response.accepted(emailMessage.getTrackingId())
+          .type(MediaType.TEXT_PLAIN)
+          .header(TRACKING_ID_HEADER, emailMessage.getTrackingId())
+          .build();
+    }
+
+    private EmailMessage createEmailMessage(String emailTo, String emailSubject) {
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.setTrackingId(UUID.randomUUID().toString());
+        emailMessage.setUserName(CurrentUser.getUserName());
+        emailMessage.setToAddress(emailTo);
+        emailMessage.setSubject(emailSubject);
+        return emailMessage;
+    }
+
+    // JAX-RS annotations
+    @Path("{templateName}/batch")
+    @POST
+    @Consumes({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
+    @Produces(APPLICATION_NDJSON)
+    // Swagger annotations
+    @ApiOperation(value = "Render a batch of documents using the specified template name",
+      notes = "<p>Render one document for each item of the input data using the specified template name</p>"
+      + "<p>The REST service can consume a JSON array or newline delimited JSON</p>"
+      + "<p>The items are rendered in parallel and the results are streamed in the order of the input data "
+      + "as newline delimited JSON, each with either the rendered document or the error code and message of the item</p>",
+      response = BatchRenderResult.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 400, message = "The template is invalid", response = ResponseError.class),
+        @ApiResponse(code = 403, message = "Not authorized to call the api"),
+        @ApiResponse(code = 404, message = "The template name is invalid", response = ResponseError.class)
+    })
+    public Response renderBatch(
+      @PathParam("templateName")
+      @ApiParam(value = "The name of the template file to use for rendering")
+      final String templateName,
+      @HeaderParam("content-type")
+      @ApiParam(hidden = true)
+      final String contentType,
+      InputStream data) throws BusinessLogicException {
+        Template template = freeMarkerRenderBean.getTemplate(templateName);
+        boolean array = !MediaType.valueOf(contentType).isCompatible(MediaType.valueOf(APPLICATION_NDJSON));
+        return Response.ok(new BatchRenderOutput(freeMarkerRenderBean, executorService, BATCH_PARALLELISM, template, data, array)).build();
+    }
+
+    // JAX-RS annotations
+    @Path("{templateName}/mail_merge")
+    @POST
+    @Consumes({MediaType.APPLICATION_JSON, APPLICATION_NDJSON, TEXT_CSV})
+    @Produces(MediaType.APPLICATION_JSON)
+    // Swagger annotations
+    @ApiOperation(value = "Email a personalized document to each recipient using the specified template name",
+      notes = "<p>Start a mail merge job that renders one email for each recipient record of the input data</p>"
+      + "<p>The REST service can consume a JSON array, newline delimited JSON or CSV with a header line</p>"
+      + "<p>Every record must have an email_to field with the email addresses of the recipient</p>"
+      + "<p>The records are rendered in parallel and queued in batches. The response is 202 Accepted with the job, "
+      + "of which the progress can be retrieved with the job id</p>"
+      + "<p>The progress of the job is only kept in memory on the node that runs it, "
+      + "and is lost when the application is restarted</p>",
+      response = MailMergeJob.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 202, message = "The mail merge job was started", response = MailMergeJob.class),
+        @ApiResponse(code = 400, message = "The template or the email subject is invalid", response = ResponseError.class),
+        @ApiResponse(code = 403, message = "Not authorized to call the api"),
+        @ApiResponse(code = 404, message = "The template name is invalid", response = ResponseError.class)
+    })
+    public Response startMailMerge(
+      @PathParam("templateName")
+      @ApiParam(value = "The name of the template file to use for rendering")
+      final String templateName,
+      @HeaderParam("content-type")
+      @ApiParam(hidden = true)
+      final String contentType,
+      @QueryParam("email_subject")
+      @ApiParam(value = "The email subject of the emails", required = true)
+      final String emailSubject,
+      InputStream data) throws BusinessLogicException {
+        if (emailSubject == null) {
+            throw new BusinessLogicException("FMR14", Response.Status.BAD_REQUEST.getStatusCode());
+        }
+        Template template = freeMarkerRenderBean.getTemplate(templateName);
+        // Spool the input data to a file so that the job can read it after the response is sent
+        java.nio.file.Path input = null;
+        try {
+            input = Files.createTempFile("mail_merge", ".tmp");
+            Files.copy(data, input, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.severe("The mail merge input data could not be spooled: " + ex.getMessage());
+            deleteQuietly(input);
+            throw new BusinessLogicException("FMR15", Response.Status.BAD_REQUEST.getStatusCode());
+        }
+        MailMergeJob job = mailMergeBean.start(template, contentType, emailSubject, CurrentUser.getUserName(), input);
+        return Response.accepted(job).build();
+    }
+
+    // JAX-RS annotations
+    @Path("mail_merges/{jobId}")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    // Swagger annotations
+    @ApiOperation(value = "Get the progress of a mail merge job",
+      notes = "<p>Get the status and the number of read, queued and failed records of a mail merge job</p>"
+      + "<p>The job is only found on the node that runs it, and until the application is restarted</p>",
+      response = MailMergeJob.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 403, message = "Not authorized to call the api"),
+        @ApiResponse(code = 404, message = "The job id is invalid", response = ResponseError.class)
+    })
+    public Response getMailMerge(
+      @PathParam("jobId")
+      @ApiParam(value = "The id of the mail merge job")
+      final String jobId) throws BusinessLogicException {
+        MailMergeJob job = mailMergeBean.getJob(jobId);
+        if (job == null) {
+            throw new BusinessLogicException("FMR17", Response.Status.NOT_FOUND.getStatusCode());
+        }
+        return Response.ok(job).build();
+    }
+
+    // JAX-RS annotations
+    @Path("templates")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    // Security annotations
+    @RolesAllowed("manage_templates")
+    // Swagger annotations
+    @ApiOperation(value = "Get the compiled and broken templates",
+      notes = "Get the names of the compiled templates and the error messages of the templates that could not be compiled",
+      response = TemplateRegistryStatus.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 403, message = "Not authorized to call the api")
+    })
+    public Response getTemplates() {
+        return Response.ok(freeMarkerEngineBean.getStatus()).build();
+    }
+
+    // JAX-RS annotations
+    @Path("templates/reload")
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    // Security annotations
+    @RolesAllowed("manage_templates")
+    // Swagger annotations
+    @ApiOperation(value = "Reload all the templates",
+      notes = "Recompile all the templates and replace the compiled templates used for rendering",
+      response = TemplateRegistryStatus.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 403, message = "Not authorized to call the api")
+    })
+    public Response reloadTemplates() {
+        TemplateRegistryStatus status = freeMarkerEngineBean.reload();
+        renderCacheBean.clear();
+        return Response.ok(status).build();
+    }
+
+    // JAX-RS annotations
+    @Path("templates/{templateName}/reload")
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    // Security annotations
+    @RolesAllowed("manage_templates")
+    // Swagger annotations
+    @ApiOperation(value = "Reload a single template",
+      notes = "Recompile a template that was added, changed or removed in the template store, without recompiling the other templates",
+      response = TemplateRegistryStatus.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 403, message = "Not authorized to call the api")
+    })
+    public Response reloadTemplate(
+      @PathParam("templateName")
+      @ApiParam(value = "The name of the template file to reload")
+      final String templateName) {
+        freeMarkerEngineBean.reloadTemplate(templateName);
+        return Response.ok(freeMarkerEngineBean.getStatus()).build();
+    }
+
+    // JAX-RS annotations
+    @Path("cache")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    // Security annotations
+    @RolesAllowed("manage_templates")
+    // Swagger annotations
+    @ApiOperation(value = "Get the render cache statistics",
+      notes = "Get the size and the hit, miss and eviction counts of the render cache",
+      response = RenderCacheStatistics.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 403, message = "Not authorized to call the api")
+    })
+    public Response getCacheStatistics() {
+        return Response.ok(renderCacheBean.getStatistics()).build();
+    }
+
+    // JAX-RS annotations
+    @Path("emails/{trackingId}")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    // Swagger annotations
+    @ApiOperation(value = "Get the delivery status of an email",
+      notes = "Get the QUEUED, SENT or FAILED delivery status of an email with the tracking id returned when it was queued",
+      response = EmailDelivery.class
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 403, message = "Not authorized to call the api"),
+        @ApiResponse(code = 404, message = "The tracking id is invalid", response = ResponseError.class)
+    })
+    public Response getEmailDelivery(
+      @PathParam("trackingId")
+      @ApiParam(value = "The tracking id of the email")
+      final String trackingId) throws BusinessLogicException {
+        EmailDelivery delivery = emailDeliveryBean.find(trackingId);
+        if (delivery == null) {
+            throw new BusinessLogicException("FMR12", Response.Status.NOT_FOUND.getStatusCode());
+        }
+        return Response.ok(delivery).build();
+    }
+
+    private static void deleteQuietly(java.nio.file.Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            log.warning("The file " + file + " could not be deleted: " + ex.getMessage());
+        }
+    }
+
+    private static boolean isNoCache(String cacheControl) {
+        if (cacheControl == null) {
+            return false;
+        }
+        String directives = cacheControl.toLowerCase();
+        return directives.contains("no-cache") || directives.contains("no-store");
     }
 
 }
@@ -0,0 +1,5 @@
+-- Indexes on the Hibernate Envers audit tables, which are applied after the
+-- tables have been generated from the entity metadata.
+-- The (LOOKUP_VALUE_ID, REV) primary key of LOOKUP_VALUE_AUD already supports
+-- the revision queries of a single lookup value.
+create index IDX_LOOKUP_VALUE_AUD_REV on LOOKUP_VALUE_AUD (REV);
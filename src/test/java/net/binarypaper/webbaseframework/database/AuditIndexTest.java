@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.database;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import net.binarypaper.webbaseframework.entity.AuditRevision;
+import net.binarypaper.webbaseframework.entity.lookup.LookupValue;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.tool.hbm2ddl.SingleLineSqlCommandExtractor;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Query plan regression tests for the indexes used by the audit revision
+ * queries, using the schema generated from the entity metadata and the audit
+ * index script on an H2 in-memory database.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class AuditIndexTest {
+
+    private static final String URL = "jdbc:h2:mem:audit_index;DB_CLOSE_DELAY=-1";
+    private static final String AUDIT_INDEX_SCRIPT = "META-INF/sql/create-audit-indexes.sql";
+
+    private static SessionFactory sessionFactory;
+    private static Connection connection;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+          .applySetting("hibernate.connection.url", URL)
+          .applySetting("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+          .applySetting("hibernate.hbm2ddl.auto", "create")
+          .applySetting("javax.persistence.validation.mode", "none")
+          .build();
+        sessionFactory = new MetadataSources(registry)
+          .addAnnotatedClass(AuditRevision.class)
+          .addAnnotatedClass(LookupValue.class)
+          .buildMetadata()
+          .buildSessionFactory();
+        connection = DriverManager.getConnection(URL);
+        dropForeignKeys("LOOKUP_VALUE_AUD");
+        try (InputStreamReader reader = new InputStreamReader(
+          AuditIndexTest.class.getClassLoader().getResourceAsStream(AUDIT_INDEX_SCRIPT), StandardCharsets.UTF_8);
+          Statement statement = connection.createStatement()) {
+            for (String command : new SingleLineSqlCommandExtractor().extractCommands(reader)) {
+                statement.execute(command);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        connection.close();
+        sessionFactory.close();
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Query Plan Tests">
+    @Test
+    public void auditRowsOfRevisionUseIndex() throws Exception {
+        String plan = explain("SELECT * FROM LOOKUP_VALUE_AUD WHERE REV = 6");
+        Assert.assertTrue(plan, plan.contains("IDX_LOOKUP_VALUE_AUD_REV"));
+    }
+
+    @Test
+    public void revisionsBeforeTimestampUseIndex() throws Exception {
+        String plan = explain("SELECT REV FROM AUDIT_REVISION WHERE REV_TIMESTAMP < 1000");
+        Assert.assertTrue(plan, plan.contains("IDX_AUDIT_REVISION_TIMESTAMP"));
+    }
+    //</editor-fold>
+
+    /**
+     * Drop the foreign keys of a table together with the indexes H2 creates for
+     * them, as most production databases do not index foreign keys themselves
+     */
+    private static void dropForeignKeys(String tableName) throws Exception {
+        try (Statement query = connection.createStatement();
+          Statement statement = connection.createStatement();
+          ResultSet resultSet = query.executeQuery("SELECT CONSTRAINT_NAME FROM INFORMATION_SCHEMA.CONSTRAINTS "
+            + "WHERE CONSTRAINT_TYPE = 'REFERENTIAL' AND TABLE_NAME = '" + tableName + "'")) {
+            while (resultSet.next()) {
+                statement.execute("ALTER TABLE " + tableName + " DROP CONSTRAINT " + resultSet.getString(1));
+            }
+        }
+    }
+
+    private String explain(String sql) throws Exception {
+        try (Statement statement = connection.createStatement();
+          ResultSet resultSet = statement.executeQuery("EXPLAIN " + sql)) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+}
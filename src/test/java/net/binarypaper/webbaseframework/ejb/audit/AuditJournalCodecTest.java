@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.audit;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import javax.jms.JMSException;
+import org.hibernate.envers.RevisionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the AuditJournalCodec class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class AuditJournalCodecTest {
+
+    //<editor-fold defaultstate="collapsed" desc="Audit Journal Codec Tests">
+    @Test
+    public void roundTrip() throws Exception {
+        AuditJournalEntry entry = new AuditJournalEntry();
+        entry.setRevisionTimestamp(1465554879000L);
+        entry.setUserName("albert");
+        HashMap<String, Object> data = new HashMap<>();
+        data.put("displayValue", "Été");
+        data.put("active", Boolean.TRUE);
+        data.put("version", 3);
+        data.put("effectiveFrom", new java.sql.Date(1451606400000L));
+        data.put("effectiveTo", new Date(1483142400000L));
+        data.put("amount", new BigDecimal("12.50"));
+        data.put("type", RevisionType.MOD);
+        data.put("parent_id", 7L);
+        data.put("comment", null);
+        Timestamp timestamp = new Timestamp(1465554879000L);
+        timestamp.setNanos(123456789);
+        data.put("updated", timestamp);
+        entry.addChange("LookupValue#1", new AuditJournalChange("LookupValue_AUD", RevisionType.MOD, createId(1L), data));
+        entry.addChange("LookupValue#2", new AuditJournalChange("LookupValue_AUD", RevisionType.DEL, createId(2L), new HashMap<>()));
+        AuditJournalEntry decoded = AuditJournalCodec.decode(AuditJournalCodec.encode(entry));
+        Assert.assertEquals(entry, decoded);
+        Assert.assertEquals(java.sql.Date.class, decoded.getChanges().get("LookupValue#1").getData().get("effectiveFrom").getClass());
+        Assert.assertEquals(Date.class, decoded.getChanges().get("LookupValue#1").getData().get("effectiveTo").getClass());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedValue() {
+        HashMap<String, Object> data = new HashMap<>();
+        data.put("value", new Object());
+        AuditJournalEntry entry = new AuditJournalEntry();
+        entry.addChange("LookupValue#1", new AuditJournalChange("LookupValue_AUD", RevisionType.ADD, createId(1L), data));
+        AuditJournalCodec.encode(entry);
+    }
+
+    @Test(expected = JMSException.class)
+    public void unsupportedVersion() throws Exception {
+        AuditJournalCodec.decode(new byte[]{99});
+    }
+    //</editor-fold>
+
+    private HashMap<String, Object> createId(long id) {
+        HashMap<String, Object> originalId = new HashMap<>();
+        originalId.put("id", id);
+        return originalId;
+    }
+}
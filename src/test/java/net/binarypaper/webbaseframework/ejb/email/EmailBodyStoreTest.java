@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import javax.activation.DataSource;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EmailBodyStore class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailBodyStoreTest {
+
+    //<editor-fold defaultstate="collapsed" desc="Email Body Store Tests">
+    @Test
+    public void smallBodyQueued() throws Exception {
+        EmailMessage emailMessage = createEmailMessage("<p>Hi Albert Einstein</p>");
+        EmailBodyStore.checkIn(emailMessage);
+        Assert.assertEquals("<p>Hi Albert Einstein</p>", emailMessage.getBody());
+        Assert.assertNull(emailMessage.getBodyReference());
+    }
+
+    @Test
+    public void largeBodyStored() throws Exception {
+        StringBuilder body = new StringBuilder();
+        while (body.length() <= 262144) {
+            body.append("<tr><td>Item été</td></tr>");
+        }
+        EmailMessage emailMessage = createEmailMessage(body.toString());
+        EmailBodyStore.checkIn(emailMessage);
+        Assert.assertNull(emailMessage.getBody());
+        Assert.assertNotNull(emailMessage.getBodyReference());
+        DataSource dataSource = EmailBodyStore.getDataSource(emailMessage.getBodyReference());
+        Assert.assertEquals("text/html; charset=utf-8", dataSource.getContentType());
+        try (InputStream in = dataSource.getInputStream()) {
+            Assert.assertEquals(body.toString(), new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next());
+        }
+        EmailBodyStore.delete(emailMessage.getBodyReference());
+        try {
+            EmailBodyStore.getDataSource(emailMessage.getBodyReference());
+            Assert.fail("The body was not deleted");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void storedBodyDeletedOnRollback() throws Exception {
+        StringBuilder body = new StringBuilder();
+        while (body.length() <= 262144) {
+            body.append("<tr><td>Item</td></tr>");
+        }
+        String[] references = new String[2];
+        Synchronization[] synchronizations = new Synchronization[2];
+        for (int i = 0; i < references.length; i++) {
+            EmailMessage emailMessage = createEmailMessage(body.toString());
+            EmailBodyStore.checkIn(emailMessage);
+            references[i] = emailMessage.getBodyReference();
+            TransactionSynchronizationRegistry registry = new TransactionRegistry();
+            EmailBodyStore.deleteOnRollback(references[i], registry);
+            synchronizations[i] = ((TransactionRegistry) registry).synchronization;
+        }
+        synchronizations[0].afterCompletion(Status.STATUS_COMMITTED);
+        synchronizations[1].afterCompletion(Status.STATUS_ROLLEDBACK);
+        Assert.assertNotNull(EmailBodyStore.getDataSource(references[0]));
+        try {
+            EmailBodyStore.getDataSource(references[1]);
+            Assert.fail("The body of the rolled back transaction was not deleted");
+        } catch (IOException ex) {
+            // Expected
+        }
+        EmailBodyStore.delete(references[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidReference() throws Exception {
+        EmailBodyStore.getDataSource("../ApplicationSettings.properties");
+    }
+    //</editor-fold>
+
+    private EmailMessage createEmailMessage(String body) {
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.setToAddress("test@example.com");
+        emailMessage.setSubject("Test JSON to HTML Email");
+        emailMessage.setBody(body);
+        return emailMessage;
+    }
+
+    private static class TransactionRegistry implements TransactionSynchronizationRegistry {
+
+        private Synchronization synchronization;
+
+        @Override
+        public Object getTransactionKey() {
+            return this;
+        }
+
+        @Override
+        public void putResource(Object key, Object value) {
+        }
+
+        @Override
+        public Object getResource(Object key) {
+            return null;
+        }
+
+        @Override
+        public void registerInterposedSynchronization(Synchronization synchronization) {
+            this.synchronization = synchronization;
+        }
+
+        @Override
+        public int getTransactionStatus() {
+            return Status.STATUS_ACTIVE;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return false;
+        }
+    }
+}
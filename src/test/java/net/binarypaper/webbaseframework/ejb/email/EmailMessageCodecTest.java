@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import javax.jms.JMSException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EmailMessageCodec class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailMessageCodecTest {
+
+    //<editor-fold defaultstate="collapsed" desc="Email Message Codec Tests">
+    @Test
+    public void roundTrip() throws Exception {
+        EmailMessage emailMessage = createEmailMessage("<p>Hi Albert Einstein, été</p>");
+        Assert.assertEquals(emailMessage, EmailMessageCodec.decode(EmailMessageCodec.encode(emailMessage, 4096)));
+    }
+
+    @Test
+    public void nullFields() throws Exception {
+        EmailMessage emailMessage = new EmailMessage();
+        Assert.assertEquals(emailMessage, EmailMessageCodec.decode(EmailMessageCodec.encode(emailMessage, 4096)));
+    }
+
+    @Test
+    public void largeBodyCompressed() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("<tr><td>Item ").append(i).append("</td></tr>");
+        }
+        EmailMessage emailMessage = createEmailMessage(body.toString());
+        byte[] uncompressed = EmailMessageCodec.encode(emailMessage, Integer.MAX_VALUE);
+        byte[] compressed = EmailMessageCodec.encode(emailMessage, 4096);
+        Assert.assertTrue(compressed.length * 4 < uncompressed.length);
+        Assert.assertEquals(emailMessage, EmailMessageCodec.decode(compressed));
+    }
+
+    @Test
+    public void bodyReference() throws Exception {
+        EmailMessage emailMessage = createEmailMessage(null);
+        emailMessage.setBodyReference("0f8fad5b-d9cb-469f-a165-70867728950e");
+        EmailMessage decoded = EmailMessageCodec.decode(EmailMessageCodec.encode(emailMessage, 0));
+        Assert.assertEquals(emailMessage, decoded);
+        Assert.assertNull(decoded.getBody());
+    }
+
+    @Test
+    public void renderFields() throws Exception {
+        StringBuilder data = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            data.append("{\"firstName\": \"Albert\", \"item\": ").append(i).append("},");
+        }
+        EmailMessage emailMessage = createEmailMessage(null);
+        emailMessage.setTrackingId("0f8fad5b-d9cb-469f-a165-70867728950e");
+        emailMessage.setTemplateName("BasicJSON.html");
+        emailMessage.setContentType("application/json");
+        emailMessage.setData(data.append("{}]").toString());
+        byte[] encoded = EmailMessageCodec.encode(emailMessage, 4096);
+        Assert.assertTrue(encoded.length * 4 < data.length());
+        Assert.assertEquals(emailMessage, EmailMessageCodec.decode(encoded));
+    }
+
+    @Test
+    public void multipartFields() throws Exception {
+        EmailMessage emailMessage = createEmailMessage("<p>Hi Albert Einstein</p>");
+        emailMessage.setTextBody("Hi Albert Einstein");
+        Assert.assertEquals(emailMessage, EmailMessageCodec.decode(EmailMessageCodec.encode(emailMessage, 4096)));
+        emailMessage = createEmailMessage(null);
+        emailMessage.setTemplateName("BasicJSON.html");
+        emailMessage.setMultipart(true);
+        Assert.assertEquals(emailMessage, EmailMessageCodec.decode(EmailMessageCodec.encode(emailMessage, 4096)));
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws Exception {
+        EmailMessage emailMessage = createEmailMessage("<p>Hi Albert Einstein</p>");
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(emailMessage);
+        }
+        Assert.assertTrue(EmailMessageCodec.encode(emailMessage, 4096).length * 2 < serialized.size());
+    }
+
+    @Test(expected = JMSException.class)
+    public void unsupportedVersion() throws Exception {
+        EmailMessageCodec.decode(new byte[]{99, 0});
+    }
+
+    @Test(expected = JMSException.class)
+    public void truncated() throws Exception {
+        byte[] encoded = EmailMessageCodec.encode(createEmailMessage("<p>Hi</p>"), 4096);
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        EmailMessageCodec.decode(truncated);
+    }
+    //</editor-fold>
+
+    private EmailMessage createEmailMessage(String body) {
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.setUserName("albert");
+        emailMessage.setToAddress("test@example.com");
+        emailMessage.setSubject("Test JSON to HTML Email");
+        emailMessage.setBody(body);
+        return emailMessage;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import java.util.Arrays;
+import java.util.Collections;
+import javax.mail.internet.AddressException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EmailRateLimiter class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailRateLimiterTest {
+
+    private long now;
+
+    //<editor-fold defaultstate="collapsed" desc="Email Rate Limiter Tests">
+    @Test
+    public void burstThenRate() {
+        // 60 per minute is 1 message every 1000ms
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(2, domain -> 60, () -> now);
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("example.com")));
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("example.com")));
+        Assert.assertEquals(1000, rateLimiter.acquire(Collections.singleton("example.com")));
+        now += 400;
+        Assert.assertEquals(600, rateLimiter.acquire(Collections.singleton("example.com")));
+        now += 600;
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("example.com")));
+    }
+
+    @Test
+    public void unlimitedDomain() {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(1, domain -> "slow.com".equals(domain) ? 1 : 0, () -> now);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("fast.com")));
+        }
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("slow.com")));
+        Assert.assertEquals(60000, rateLimiter.acquire(Collections.singleton("slow.com")));
+        Assert.assertEquals(1, rateLimiter.getBucketCount());
+    }
+
+    @Test
+    public void idleBucketsEvicted() {
+        // 60 per minute refills a bucket of 2 in 2000ms
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(2, domain -> 60, () -> now);
+        now = 60000;
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("a.com")));
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("a.com")));
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("b.com")));
+        Assert.assertEquals(2, rateLimiter.getBucketCount());
+        now += 59000;
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("c.com")));
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("c.com")));
+        Assert.assertEquals(3, rateLimiter.getBucketCount());
+        now += 1000;
+        // The full buckets of a.com and b.com are evicted, c.com is not yet full
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("a.com")));
+        Assert.assertEquals(2, rateLimiter.getBucketCount());
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("a.com")));
+        Assert.assertEquals(1000, rateLimiter.acquire(Collections.singleton("a.com")));
+    }
+
+    @Test
+    public void allDomainsOrNone() {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(1, domain -> 60, () -> now);
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("b.com")));
+        Assert.assertEquals(1000, rateLimiter.acquire(Arrays.asList("a.com", "b.com")));
+        // No token was taken from a.com
+        Assert.assertEquals(0, rateLimiter.acquire(Collections.singleton("a.com")));
+    }
+
+    @Test
+    public void getDomains() throws Exception {
+        Assert.assertEquals(Arrays.asList("example.com", "test.org"),
+          Arrays.asList(EmailRateLimiter.getDomains("albert@Example.COM, Marie Curie <marie@test.org>,isaac@example.com").toArray()));
+    }
+
+    @Test(expected = AddressException.class)
+    public void getDomainsInvalid() throws Exception {
+        EmailRateLimiter.getDomains("albert@example.com, <marie");
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the EmailRetryPolicy and SmtpCircuitBreaker classes.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class EmailRetryPolicyTest {
+
+    private long now;
+
+    //<editor-fold defaultstate="collapsed" desc="Email Retry Policy Tests">
+    @Test
+    public void exponentialDelay() {
+        EmailRetryPolicy policy = new EmailRetryPolicy(1000, 2, 300000, 5);
+        Assert.assertEquals(1000, policy.getDelay(1));
+        Assert.assertEquals(2000, policy.getDelay(2));
+        Assert.assertEquals(4000, policy.getDelay(3));
+        Assert.assertEquals(8000, policy.getDelay(4));
+    }
+
+    @Test
+    public void maxDelay() {
+        EmailRetryPolicy policy = new EmailRetryPolicy(1000, 2, 300000, 100);
+        Assert.assertEquals(256000, policy.getDelay(9));
+        Assert.assertEquals(300000, policy.getDelay(10));
+        Assert.assertEquals(300000, policy.getDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void maxAttempts() {
+        EmailRetryPolicy policy = new EmailRetryPolicy(1000, 2, 300000, 5);
+        Assert.assertFalse(policy.isExhausted(4));
+        Assert.assertTrue(policy.isExhausted(5));
+    }
+
+    @Test
+    public void permanentFailures() throws AddressException {
+        Assert.assertTrue(EmailRetryPolicy.isPermanent(rejected(550)));
+        Assert.assertTrue(EmailRetryPolicy.isPermanent(new SMTPSendFailedException("DATA", 554, "554 Transaction failed", null, null, null, null)));
+    }
+
+    @Test
+    public void transientFailures() throws AddressException {
+        Assert.assertFalse(EmailRetryPolicy.isPermanent(rejected(450)));
+        Assert.assertFalse(EmailRetryPolicy.isPermanent(rejected(452)));
+        Assert.assertFalse(EmailRetryPolicy.isPermanent(new SMTPSendFailedException("MAIL FROM", 421, "421 Service not available", null, null, null, null)));
+        Assert.assertFalse(EmailRetryPolicy.isPermanent(new SMTPSendFailedException("DATA", 451, "451 Local error", null, null, null, null)));
+        Assert.assertFalse(EmailRetryPolicy.isPermanent(new SendFailedException("Invalid Addresses")));
+        Assert.assertFalse(EmailRetryPolicy.isPermanent(new MessagingException("Connection reset")));
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="SMTP Circuit Breaker Tests">
+    @Test
+    public void circuitOpensAfterThreshold() {
+        SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(3, 30000, () -> now);
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(0, circuitBreaker.getPause());
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(30000, circuitBreaker.getPause());
+        now += 10000;
+        Assert.assertEquals(20000, circuitBreaker.getPause());
+    }
+
+    @Test
+    public void successResetsFailures() {
+        SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(3, 30000, () -> now);
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(0, circuitBreaker.getPause());
+    }
+
+    @Test
+    public void trialBatchClosesCircuit() {
+        SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(1, 30000, () -> now);
+        circuitBreaker.recordFailure();
+        now += 30000;
+        Assert.assertEquals(0, circuitBreaker.getPause());
+        // Only one trial batch is sent
+        Assert.assertEquals(30000, circuitBreaker.getPause());
+        circuitBreaker.recordSuccess();
+        Assert.assertEquals(0, circuitBreaker.getPause());
+    }
+
+    @Test
+    public void failedTrialBatchOpensCircuit() {
+        SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(3, 30000, () -> now);
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.recordFailure();
+        }
+        now += 30000;
+        Assert.assertEquals(0, circuitBreaker.getPause());
+        now += 5000;
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(30000, circuitBreaker.getPause());
+    }
+
+    @Test
+    public void rejectedRecipientsDoNotOpenCircuit() throws AddressException {
+        SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(1, 30000, () -> now);
+        MessagingException rejected = rejected(550);
+        Assert.assertTrue(circuitBreaker.recordBatch(Arrays.asList(rejected, rejected)));
+        Assert.assertTrue(circuitBreaker.recordBatch(Arrays.asList(new MessagingException("Connection reset"), null)));
+        Assert.assertEquals(0, circuitBreaker.getPause());
+        Assert.assertFalse(circuitBreaker.recordBatch(Collections.nCopies(2, new MessagingException("Connection refused"))));
+        Assert.assertEquals(30000, circuitBreaker.getPause());
+    }
+
+    @Test
+    public void transientRejectionsOpenCircuit() throws AddressException {
+        SmtpCircuitBreaker circuitBreaker = new SmtpCircuitBreaker(1, 30000, () -> now);
+        MessagingException rejected = rejected(450);
+        Assert.assertFalse(circuitBreaker.recordBatch(Arrays.asList(rejected, rejected)));
+        Assert.assertEquals(30000, circuitBreaker.getPause());
+    }
+    //</editor-fold>
+
+    /**
+     * Returns the failure the SMTP transport reports when the recipient is
+     * rejected in reply to RCPT TO
+     *
+     * @param returnCode The SMTP reply code
+     * @return The failure
+     */
+    private static MessagingException rejected(int returnCode) throws AddressException {
+        InternetAddress address = new InternetAddress("john@binarypaper.net");
+        SMTPAddressFailedException addressFailed = new SMTPAddressFailedException(address, "RCPT TO", returnCode, returnCode + " Mailbox unavailable");
+        return new SendFailedException("Invalid Addresses", addressFailed, null, null, new InternetAddress[]{address});
+    }
+}
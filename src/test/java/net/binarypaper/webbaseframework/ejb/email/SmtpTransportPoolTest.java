@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.email;
+
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Unit tests for the SmtpTransportPool class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class SmtpTransportPoolTest {
+
+    private static final Logger LOG = Logger.getLogger(SmtpTransportPoolTest.class.getName());
+    private static final int MESSAGES = 200;
+    private static final int THREADS = 4;
+
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetupTest.SMTP);
+
+    private Session mailSession;
+    private SmtpTransportPool pool;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @Before
+    public void setUp() {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "localhost");
+        properties.setProperty("mail.smtp.port", String.valueOf(ServerSetupTest.SMTP.getPort()));
+        mailSession = Session.getInstance(properties);
+        pool = new SmtpTransportPool(mailSession, THREADS, 5000, 0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="SMTP Transport Pool Tests">
+    @Test
+    public void connectionsReused() throws Exception {
+        long start = System.nanoTime();
+        sendInParallel(MESSAGES, this::send);
+        long pooled = System.nanoTime() - start;
+        Assert.assertTrue(greenMail.waitForIncomingEmail(10000, MESSAGES));
+        Assert.assertEquals(MESSAGES, greenMail.getReceivedMessages().length);
+        Assert.assertTrue("At most one connection per thread must be opened", pool.getConnectionsOpened() <= THREADS);
+        start = System.nanoTime();
+        sendInParallel(MESSAGES, Transport::send);
+        long unpooled = System.nanoTime() - start;
+        LOG.info(String.format("Sent %d messages in %d ms with the pool and in %d ms with a connection per message",
+          MESSAGES, pooled / 1000000, unpooled / 1000000));
+    }
+
+    @Test
+    public void batchSentOverOneConnection() throws Exception {
+        List<MimeMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(createMessage(i));
+        }
+        List<MessagingException> failures = pool.send(messages);
+        Assert.assertEquals(Collections.nCopies(20, null), failures);
+        Assert.assertEquals(1, pool.getConnectionsOpened());
+        Assert.assertTrue(greenMail.waitForIncomingEmail(5000, 20));
+    }
+
+    @Test
+    public void reconnectAfterConnectionLost() throws Exception {
+        send(createMessage(0));
+        Assert.assertEquals(1, pool.getConnectionsOpened());
+        // Restarting the server drops the pooled connection
+        greenMail.stop();
+        greenMail.start();
+        send(createMessage(1));
+        Assert.assertEquals(2, pool.getConnectionsOpened());
+        Assert.assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+    }
+
+    @Test
+    public void messageRetriedAfterPooledConnectionClosed() throws Exception {
+        // The pooled connection is not validated before it is used
+        SmtpTransportPool unvalidatedPool = new SmtpTransportPool(mailSession, THREADS, 5000, 60000);
+        try {
+            Assert.assertNull(unvalidatedPool.send(Collections.singletonList(createMessage(0))).get(0));
+            Assert.assertEquals(1, unvalidatedPool.getConnectionsOpened());
+            // Restarting the server closes the pooled connection
+            greenMail.stop();
+            greenMail.start();
+            List<MessagingException> failures = unvalidatedPool.send(Arrays.asList(createMessage(1), createMessage(2)));
+            Assert.assertEquals(Arrays.asList(null, null), failures);
+            Assert.assertEquals(2, unvalidatedPool.getConnectionsOpened());
+            Assert.assertTrue(greenMail.waitForIncomingEmail(5000, 2));
+        } finally {
+            unvalidatedPool.close();
+        }
+    }
+    //</editor-fold>
+
+    private void send(MimeMessage message) throws MessagingException {
+        MessagingException failure = pool.send(Collections.singletonList(message)).get(0);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void sendInParallel(int messages, MessageSender sender) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < messages; i++) {
+                MimeMessage message = createMessage(i);
+                results.add(executorService.submit(() -> {
+                    sender.send(message);
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private MimeMessage createMessage(int number) throws Exception {
+        MimeMessage message = new MimeMessage(mailSession);
+        message.setFrom(new InternetAddress("admin@test.com"));
+        message.setRecipients(RecipientType.TO, InternetAddress.parse("test@example.com"));
+        message.setSubject("Test message " + number);
+        message.setText("Hello " + number, "utf-8", "html");
+        return message;
+    }
+
+    private interface MessageSender {
+
+        void send(MimeMessage message) throws Exception;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the FileTemplateStore class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class FileTemplateStoreTest {
+
+    private Path directory;
+    private FileTemplateStore templateStore;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("templates");
+        Files.createDirectory(directory.resolve("invoices"));
+        write("Basic.html", "Hi ${data.firstName}");
+        write("invoices/Invoice.txt", "Invoice ${data.number}");
+        write(".Basic.html.swp", "");
+        templateStore = new FileTemplateStore(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        templateStore.close();
+        Files.walk(directory)
+          .sorted((a, b) -> b.compareTo(a))
+          .forEach(path -> path.toFile().delete());
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="File Template Store Tests">
+    @Test
+    public void templateNames() throws Exception {
+        Assert.assertEquals(Arrays.asList("Basic.html", "invoices/Invoice.txt"), templateStore.getTemplateNames());
+    }
+
+    @Test
+    public void changedTemplateNotified() throws Exception {
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        templateStore.watch(changes::add, Executors.defaultThreadFactory());
+        write("invoices/Invoice.txt", "Invoice ${data.number?c}");
+        Assert.assertEquals("invoices/Invoice.txt", changes.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void newSubDirectoryWatched() throws Exception {
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        templateStore.watch(changes::add, Executors.defaultThreadFactory());
+        Files.createDirectory(directory.resolve("letters"));
+        Assert.assertNull(changes.poll(1, TimeUnit.SECONDS));
+        write("letters/Welcome.html", "Welcome ${data.firstName}");
+        Assert.assertEquals("letters/Welcome.html", changes.poll(10, TimeUnit.SECONDS));
+    }
+    //</editor-fold>
+
+    private void write(String templateName, String content) throws Exception {
+        Files.write(directory.resolve(templateName), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
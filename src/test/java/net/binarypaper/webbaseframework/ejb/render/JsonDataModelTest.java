@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateModel;
+import freemarker.template.Version;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the JsonDataModel class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class JsonDataModelTest {
+
+    private static Configuration configuration;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @BeforeClass
+    public static void setUpClass() {
+        configuration = new Configuration(new Version(2, 3, 23));
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="JSON Data Model Tests">
+    @Test
+    public void nestedValues() throws Exception {
+        String json = "{'firstName': 'Albert', address: {'city': 'Ulm'}, 'prizes': [{'year': 1921}], 'born': 1879.0314}";
+        Assert.assertEquals("Albert Ulm 1921 1,879.031",
+          render("${data.firstName} ${data.address.city} <#list data.prizes as p>${p.year?c}</#list> ${data.born}", json));
+    }
+
+    @Test
+    public void evalStillSupported() throws Exception {
+        String json = "{'firstName': 'Albert', 'surname': 'Einstein'}";
+        Assert.assertEquals("Albert Einstein",
+          render("<#assign data = data?eval>${data.firstName} ${data.surname}", json));
+    }
+
+    @Test
+    public void shippedTemplatesRenderTheSameWithEval() throws Exception {
+        // Customer templates copied from the shipped templates still evaluate the input data with ?eval
+        String json = "{'firstName': 'Albert', 'surname': 'Einstein'}";
+        for (String templateName : new String[]{"BasicJSON.html", "BasicJSON.txt"}) {
+            String templateSource = new String(Files.readAllBytes(Paths.get("src/main/webapp/WEB-INF/email_templates", templateName)), StandardCharsets.UTF_8);
+            Assert.assertEquals(templateName, render(templateSource, json), render("<#assign data = data?eval>" + templateSource, json));
+        }
+    }
+
+    @Test
+    public void emptyInput() throws Exception {
+        Assert.assertEquals("Hello []", render("Hello [${data}]", ""));
+    }
+
+    @Test
+    public void rootArray() throws Exception {
+        Assert.assertEquals("3: a b c", render("${data?size}: ${data?join(' ')}", "['a', 'b', 'c']"));
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void invalidJson() throws Exception {
+        JsonDataModel.parse("Invalid JSON will cause FreeMarker runtime error", configuration.getObjectWrapper());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void trailingContent() throws Exception {
+        JsonDataModel.parse("{'firstName': 'Albert'} {}", configuration.getObjectWrapper());
+    }
+
+    @Test
+    public void batchArray() throws Exception {
+        Assert.assertEquals("Albert|Marie|", renderBatch("[{'firstName': 'Albert'}, {'firstName': 'Marie'}]", true));
+    }
+
+    @Test
+    public void batchNewlineDelimited() throws Exception {
+        Assert.assertEquals("Albert|Marie|", renderBatch("{'firstName': 'Albert'}\n{'firstName': 'Marie'}\n", false));
+    }
+
+    @Test
+    public void batchEvalStillSupported() throws Exception {
+        Assert.assertEquals("Albert|", renderBatch("[{firstName: 'Albert'}]", true, "<#assign data = data?eval>${data.firstName}|"));
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void batchNotArray() throws Exception {
+        renderBatch("{'firstName': 'Albert'}", true);
+    }
+    //</editor-fold>
+
+    private String renderBatch(String json, boolean array) throws Exception {
+        return renderBatch(json, array, "${data.firstName}|");
+    }
+
+    private String renderBatch(String json, boolean array, String templateSource) throws Exception {
+        Template template = new Template("test", templateSource, configuration);
+        StringWriter writer = new StringWriter();
+        try (JsonDataModel.BatchReader reader = JsonDataModel.createBatchReader(
+          new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), array, configuration.getObjectWrapper())) {
+            for (TemplateModel data = reader.next(); data != null; data = reader.next()) {
+                Map<String, Object> templateData = new HashMap<>();
+                templateData.put("data", data);
+                template.process(templateData, writer);
+            }
+        }
+        return writer.toString();
+    }
+
+    private String render(String templateSource, String json) throws Exception {
+        Template template = new Template("test", templateSource, configuration);
+        Map<String, Object> templateData = new HashMap<>();
+        templateData.put("data", JsonDataModel.parse(json, configuration.getObjectWrapper()));
+        StringWriter writer = new StringWriter();
+        template.process(templateData, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.core._CoreAPI;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the RenderGovernor class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class RenderGovernorTest {
+
+    private static Configuration configuration;
+    private static ScheduledExecutorService scheduledExecutorService;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @BeforeClass
+    public static void setUpClass() {
+        configuration = new Configuration(new Version(2, 3, 23));
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        scheduledExecutorService.shutdown();
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Render Governor Tests">
+    @Test
+    public void withinLimits() throws Exception {
+        RenderGovernor governor = render("<#list 1..3 as i>${i}</#list>", 1000, 10);
+        Assert.assertNull(governor.getAbortReason());
+        Assert.assertEquals("123", governor.toString());
+    }
+
+    @Test
+    public void maximumSizeExceeded() throws Exception {
+        RenderGovernor governor = render("<#list 1..100 as i>${i}</#list>", 0, 10);
+        Assert.assertEquals("The rendered document exceeded the maximum size of 10 characters", governor.getAbortReason());
+        Assert.assertFalse(governor.isTimedOut());
+    }
+
+    @Test
+    public void loopWithoutOutputInterrupted() throws Exception {
+        long start = System.nanoTime();
+        RenderGovernor governor = render("<#list 1..2147483647 as i><#assign x = i></#list>", 100, 0);
+        Assert.assertEquals("The render exceeded its time budget of 100 ms", governor.getAbortReason());
+        Assert.assertTrue(governor.isTimedOut());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        Assert.assertFalse("The interrupt status must be cleared", Thread.currentThread().isInterrupted());
+    }
+    //</editor-fold>
+
+    private RenderGovernor render(String templateSource, long timeout, long maxSize) throws Exception {
+        Template template = new Template("test", templateSource, configuration);
+        _CoreAPI.addThreadInterruptedChecks(template);
+        StringWriter writer = new StringWriter();
+        RenderGovernor governor = new RenderGovernor(writer, timeout, maxSize) {
+            @Override
+            public String toString() {
+                return writer.toString();
+            }
+        };
+        if (timeout > 0) {
+            scheduledExecutorService.schedule(governor::timeout, timeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+            template.process(new HashMap<>(), governor);
+        } catch (IOException | RuntimeException ex) {
+            Assert.assertNotNull(ex.getMessage(), governor.getAbortReason());
+        } finally {
+            governor.finish();
+        }
+        return governor;
+    }
+}
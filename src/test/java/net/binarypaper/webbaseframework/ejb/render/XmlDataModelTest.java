@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit tests for the XmlDataModel class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class XmlDataModelTest {
+
+    private static final String XML = "<root id=\"7\"><firstName>Isaac</firstName><surname>Newton</surname>"
+      + "<law>Inertia</law><law>Acceleration</law><law>Reaction</law></root>";
+    private static final String TEMPLATE = "${data.root.@id} ${data.root.firstName} ${data.root.surname}"
+      + "<#list data.root.law as law> ${law}</#list>";
+    private static final String XXE = "<?xml version=\"1.0\"?><!DOCTYPE root [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>"
+      + "<root><firstName>&xxe;</firstName></root>";
+
+    private static Configuration configuration;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @BeforeClass
+    public static void setUpClass() {
+        configuration = new Configuration(new Version(2, 3, 23));
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="XML Data Model Tests">
+    @Test
+    public void nodeModel() throws Exception {
+        Assert.assertEquals("7 Isaac Newton Inertia Acceleration Reaction", render(XML, false));
+        // The thread's DocumentBuilder is reused for the next document
+        Assert.assertEquals("7 Isaac Newton Inertia Acceleration Reaction", render(XML, false));
+    }
+
+    @Test
+    public void lightweightModel() throws Exception {
+        Assert.assertEquals("7 Isaac Newton Inertia Acceleration Reaction", render(XML, true));
+    }
+
+    @Test(expected = SAXException.class)
+    public void nodeModelRejectsDoctype() throws Exception {
+        XmlDataModel.parse(XXE, false);
+    }
+
+    @Test(expected = SAXException.class)
+    public void lightweightModelRejectsDoctype() throws Exception {
+        XmlDataModel.parse(XXE, true);
+    }
+
+    @Test(expected = SAXException.class)
+    public void invalidXml() throws Exception {
+        XmlDataModel.parse("Invalid XML", false);
+    }
+    //</editor-fold>
+
+    private String render(String xml, boolean lightweight) throws Exception {
+        Template template = new Template("test", TEMPLATE, configuration);
+        Map<String, Object> templateData = new HashMap<>();
+        templateData.put("data", XmlDataModel.parse(xml, lightweight));
+        StringWriter writer = new StringWriter();
+        template.process(templateData, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.ejb.render.database;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the DatabaseTemplateStore class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class DatabaseTemplateStoreTest {
+
+    private Map<String, Long> lastModifiedTimes;
+    private DatabaseTemplateStore templateStore;
+    private BlockingQueue<String> changes;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @Before
+    public void setUp() {
+        lastModifiedTimes = new ConcurrentHashMap<>();
+        lastModifiedTimes.put("Basic.html", 1000L);
+        lastModifiedTimes.put("Invoice.txt", 1000L);
+        RenderTemplateBean renderTemplateBean = new RenderTemplateBean() {
+            @Override
+            public Map<String, Long> getLastModifiedTimes() {
+                return new ConcurrentHashMap<>(lastModifiedTimes);
+            }
+        };
+        templateStore = new DatabaseTemplateStore(renderTemplateBean, 50);
+        changes = new LinkedBlockingQueue<>();
+        templateStore.watch(changes::add, Executors.defaultThreadFactory());
+    }
+
+    @After
+    public void tearDown() {
+        templateStore.close();
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Database Template Store Tests">
+    @Test
+    public void changedTemplateNotified() throws Exception {
+        Assert.assertNull(changes.poll(200, TimeUnit.MILLISECONDS));
+        lastModifiedTimes.put("Invoice.txt", 2000L);
+        Assert.assertEquals("Invoice.txt", changes.poll(10, TimeUnit.SECONDS));
+        Assert.assertNull(changes.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void addedAndRemovedTemplatesNotified() throws Exception {
+        lastModifiedTimes.put("Welcome.html", 3000L);
+        Assert.assertEquals("Welcome.html", changes.poll(10, TimeUnit.SECONDS));
+        lastModifiedTimes.remove("Basic.html");
+        Assert.assertEquals("Basic.html", changes.poll(10, TimeUnit.SECONDS));
+    }
+    //</editor-fold>
+}
@@ -28,9 +28,11 @@ import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import net.binarypaper.webbaseframework.ejb.audit.AuditIntegrator;
 import net.binarypaper.webbaseframework.entity.ActivatableEntity;
 import net.binarypaper.webbaseframework.entity.AuditRevision;
 import net.binarypaper.webbaseframework.entity.lookup.LookupValue;
+import net.binarypaper.webbaseframework.rest.AuditRevisionDiff;
 import net.binarypaper.webbaseframework.rest.BusinessLogicException;
 import net.binarypaper.webbaseframework.rest.ResponseError;
 import net.binarypaper.webbaseframework.rest.utils.KeycloakToken;
@@ -81,9 +83,13 @@ public class LookupValueResourceIT {
                 .addPackage(BusinessLogicException.class.getPackage())
                 .addPackage(LookupValue.class.getPackage())
                 .addPackage(LookupValueResource.class.getPackage())
+                .addPackage(AuditIntegrator.class.getPackage())
                 .addAsResource("ValidationMessages.properties")
                 .addAsResource("ErrorMessages.properties")
+                .addAsResource("ApplicationSettings.properties")
                 .addAsResource("test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/services/org.hibernate.integrator.spi.Integrator")
+                .addAsResource("META-INF/sql/create-audit-indexes.sql")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
                 .addAsWebInfResource("WEB-INF/web.xml", "web.xml");
     }
@@ -990,6 +996,65 @@ public class LookupValueResourceIT {
         response.close();
     }
 
+    @Test
+    @InSequence(14)
+    public void getLookupValueRevisionDiffPolo(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        // Get the revision numbers of the lookup value Polo
+        Response response = webTarget
+                .path("/lookup_values")
+                .path("6")
+                .path("revisions")
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .get();
+        List<LookupValue> lookupValues = response.readEntity(LOOKUP_VALUE_GENERIC_TYPE,
+                RestTestHelper.getJsonViewAnnotations(AuditRevision.class));
+        Long addRev = lookupValues.get(0).getRevision().getRev();
+        Long modRev = lookupValues.get(1).getRevision().getRev();
+        response.close();
+        // Get the changes between the add and the modify revisions
+        response = webTarget
+                .path("/lookup_values")
+                .path("6")
+                .path("revisions/diff")
+                .queryParam("from", addRev)
+                .queryParam("to", modRev)
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .get();
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        AuditRevisionDiff auditRevisionDiff = response.readEntity(AuditRevisionDiff.class);
+        Assert.assertEquals(addRev, auditRevisionDiff.getFromRev());
+        Assert.assertEquals(modRev, auditRevisionDiff.getToRev());
+        Assert.assertEquals(3, auditRevisionDiff.getChanges().size());
+        for (AuditRevisionDiff.Change change : auditRevisionDiff.getChanges()) {
+            if (change.getPath().equals("/active")) {
+                Assert.assertEquals(Boolean.TRUE, change.getFrom());
+                Assert.assertEquals(Boolean.FALSE, change.getValue());
+            } else {
+                Assert.assertTrue(change.getPath().equals("/effective_from") || change.getPath().equals("/effective_to"));
+                Assert.assertEquals(null, change.getFrom());
+                // Dates are returned in the same format as the lookup value
+                Assert.assertTrue(change.getValue().toString().matches("\\d{4}-\\d{2}-\\d{2}"));
+            }
+        }
+        response.close();
+        // The from revision must be before the to revision
+        response = webTarget
+                .path("/lookup_values")
+                .path("6")
+                .path("revisions/diff")
+                .queryParam("from", modRev)
+                .queryParam("to", addRev)
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .get();
+        Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        ResponseError responseError = response.readEntity(ResponseError.class);
+        Assert.assertEquals("F003", responseError.getErrorCode());
+        response.close();
+    }
+
     @Test
     @InSequence(15)
     public void uploadCsvFileValid(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
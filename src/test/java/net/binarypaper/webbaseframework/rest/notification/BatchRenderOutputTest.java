@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.webbaseframework.rest.notification;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModelException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.binarypaper.webbaseframework.ejb.render.FreeMarkerRenderBean;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the BatchRenderOutput class.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class BatchRenderOutputTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private ExecutorService executorService;
+    private Template template;
+
+    //<editor-fold defaultstate="collapsed" desc="Test Initialization">
+    @Before
+    public void setUp() throws Exception {
+        executorService = Executors.newFixedThreadPool(2);
+        template = new Template("Hello.txt", "Hello ${data.firstName}", new Configuration(Configuration.VERSION_2_3_23));
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Batch Render Output Tests">
+    @Test
+    public void unexpectedFailureWrittenAsError() throws Exception {
+        String input = "[{\"firstName\": \"Albert\"}, {\"firstName\": \"Marie\"}, {\"firstName\": \"Isaac\"}]";
+        BatchRenderOutput output = new BatchRenderOutput(new FailingRenderBean("Marie"), executorService, 2, template,
+          new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.write(bytes);
+        String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals("Hello Albert", OBJECT_MAPPER.readTree(lines[0]).get("document").asText());
+        JsonNode error = OBJECT_MAPPER.readTree(lines[1]);
+        Assert.assertEquals(1, error.get("index").asInt());
+        Assert.assertEquals("FMR5", error.get("error").get("code").asText());
+        Assert.assertEquals("Hello Isaac", OBJECT_MAPPER.readTree(lines[2]).get("document").asText());
+    }
+    //</editor-fold>
+
+    private static class FailingRenderBean extends FreeMarkerRenderBean {
+
+        private final String failingName;
+
+        FailingRenderBean(String failingName) {
+            this.failingName = failingName;
+        }
+
+        @Override
+        public void process(Template template, Map<String, Object> templateData, Writer writer) throws IOException {
+            try {
+                if (failingName.equals(((TemplateHashModel) templateData.get("data")).get("firstName").toString())) {
+                    throw new IllegalStateException("The render failed");
+                }
+                template.process(templateData, writer);
+            } catch (TemplateModelException ex) {
+                throw new IllegalStateException(ex);
+            } catch (TemplateException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+}
@@ -20,12 +20,19 @@ import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetupTest;
 import java.io.File;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import net.binarypaper.webbaseframework.ejb.audit.AuditIntegrator;
 import net.binarypaper.webbaseframework.ejb.email.EmailMessage;
+import net.binarypaper.webbaseframework.ejb.email.MailMergeJob;
 import net.binarypaper.webbaseframework.ejb.render.FreeMarkerRenderBean;
+import net.binarypaper.webbaseframework.ejb.render.database.DatabaseTemplateStore;
+import net.binarypaper.webbaseframework.entity.ActivatableEntity;
+import net.binarypaper.webbaseframework.entity.EmailDelivery;
+import net.binarypaper.webbaseframework.entity.lookup.LookupValue;
 import net.binarypaper.webbaseframework.rest.BusinessLogicException;
 import net.binarypaper.webbaseframework.rest.ResponseError;
 import net.binarypaper.webbaseframework.rest.utils.KeycloakToken;
@@ -74,9 +81,18 @@ public class RenderNotificationResourceIT {
                 .addPackage(BusinessLogicException.class.getPackage())
                 .addPackage(RenderNotificationResource.class.getPackage())
                 .addPackage(FreeMarkerRenderBean.class.getPackage())
+                .addPackage(DatabaseTemplateStore.class.getPackage())
                 .addPackage(EmailMessage.class.getPackage())
+                // The email delivery ledger needs the persistence unit with all its entities
+                .addPackage(ActivatableEntity.class.getPackage())
+                .addPackage(LookupValue.class.getPackage())
+                .addPackage(AuditIntegrator.class.getPackage())
                 .addAsResource("ValidationMessages.properties")
                 .addAsResource("ErrorMessages.properties")
+                .addAsResource("ApplicationSettings.properties")
+                .addAsResource("test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/services/org.hibernate.integrator.spi.Integrator")
+                .addAsResource("META-INF/sql/create-audit-indexes.sql")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
                 .addAsWebInfResource("WEB-INF/web.xml", "web.xml");
         for (File file : new File("src/main/webapp/WEB-INF/email_templates").listFiles()) {
@@ -367,4 +383,209 @@ public class RenderNotificationResourceIT {
         Assert.assertEquals("Test XML to Plain Text Email", emails[0].getSubject());
         Assert.assertTrue(GreenMailUtil.getBody(emails[0]).contains("Hello Marie Curie,"));
     }
+
+    @Test
+    @InSequence(8)
+    public void renderJsonBatchToHtml(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        String inputJson = "[{'firstName': 'Albert', 'surname': 'Einstein'}, {'firstName': 'Isaac'}, {'firstName': 'Marie', 'surname': 'Curie'}]";
+        Response response = webTarget
+                .path("/render_notification")
+                .path("BasicJSON.html")
+                .path("batch")
+                .request("application/x-ndjson")
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .post(Entity.entity(inputJson, MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        String[] results = response.readEntity(String.class).split("\n");
+        Assert.assertEquals(3, results.length);
+        Assert.assertTrue(results[0].startsWith("{\"index\":0,"));
+        Assert.assertTrue(results[0].contains("Hi Albert Einstein,"));
+        Assert.assertTrue(results[1].startsWith("{\"index\":1,"));
+        Assert.assertTrue(results[1].contains("\"code\":\"FMR3\""));
+        Assert.assertTrue(results[2].contains("Hi Marie Curie,"));
+        response.close();
+    }
+
+    @Test
+    @InSequence(9)
+    public void renderJsonToHtmlEmailOnly(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        String inputJson = "{'firstName': 'Nikola', 'surname': 'Tesla'}";
+        Response response = webTarget
+                .path("/render_notification")
+                .path("BasicJSON.html")
+                .queryParam("email_to", "test@example.com")
+                .queryParam("email_subject", "Test JSON to HTML Email Only")
+                .queryParam("email_only", true)
+                .request(MediaType.TEXT_PLAIN)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .post(Entity.entity(inputJson, MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(Response.Status.ACCEPTED.getStatusCode(), response.getStatus());
+        String trackingId = response.readEntity(String.class);
+        Assert.assertEquals(trackingId, response.getHeaderString("Email-Tracking-Id"));
+        response.close();
+        Assert.assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        MimeMessage[] emails = greenMail.getReceivedMessages();
+        Assert.assertEquals(1, emails.length);
+        Assert.assertEquals("Test JSON to HTML Email Only", emails[0].getSubject());
+        Assert.assertTrue(GreenMailUtil.getBody(emails[0]).contains("Hi Nikola Tesla,"));
+        // The delivery is recorded after the email was sent
+        EmailDelivery delivery = null;
+        for (int i = 0; i < 50; i++) {
+            response = webTarget
+                    .path("/render_notification")
+                    .path("emails")
+                    .path(trackingId)
+                    .request(MediaType.APPLICATION_JSON)
+                    .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                    .get();
+            Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            delivery = response.readEntity(EmailDelivery.class);
+            response.close();
+            if (EmailDelivery.SENT.equals(delivery.getStatus())) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(EmailDelivery.SENT, delivery.getStatus());
+        Assert.assertEquals("test@example.com", delivery.getToAddress());
+        Assert.assertNotNull(delivery.getSentAt());
+    }
+
+    @Test
+    @InSequence(9)
+    public void getEmailDeliveryInvalidTrackingId(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        Response response = webTarget
+                .path("/render_notification")
+                .path("emails")
+                .path("0f8fad5b-d9cb-469f-a165-70867728950e")
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .get();
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        ResponseError responseError = response.readEntity(ResponseError.class);
+        Assert.assertEquals("FMR12", responseError.getErrorCode());
+        response.close();
+    }
+
+    @Test
+    @InSequence(10)
+    public void renderJsonToHtmlAndMultipartEmail(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        String inputJson = "{'firstName': 'Ada', 'surname': 'Lovelace'}";
+        Response response = webTarget
+                .path("/render_notification")
+                .path("BasicJSON.html")
+                .queryParam("email_to", "test@example.com")
+                .queryParam("email_subject", "Test JSON to Multipart Email")
+                .queryParam("email_multipart", true)
+                .request(MediaType.TEXT_HTML)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .post(Entity.entity(inputJson, MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertTrue(response.readEntity(String.class).contains("Hi Ada Lovelace,"));
+        response.close();
+        Assert.assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        MimeMessage[] emails = greenMail.getReceivedMessages();
+        Assert.assertEquals(1, emails.length);
+        Assert.assertTrue(emails[0].getContentType().startsWith("multipart/alternative"));
+        MimeMultipart multipart = (MimeMultipart) emails[0].getContent();
+        Assert.assertEquals(2, multipart.getCount());
+        Assert.assertTrue(multipart.getBodyPart(0).isMimeType("text/plain"));
+        Assert.assertTrue(multipart.getBodyPart(0).getContent().toString().contains("Hello Ada Lovelace,"));
+        Assert.assertTrue(multipart.getBodyPart(1).isMimeType("text/html"));
+        Assert.assertTrue(multipart.getBodyPart(1).getContent().toString().contains("Hi Ada Lovelace,"));
+    }
+
+    @Test
+    @InSequence(9)
+    public void renderEmailOnlyInvalidTemplateName(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        Response response = webTarget
+                .path("/render_notification")
+                .path("DoesNotExist.html")
+                .queryParam("email_to", "test@example.com")
+                .queryParam("email_subject", "Test Email Only")
+                .queryParam("email_only", true)
+                .request(MediaType.TEXT_PLAIN)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .post(Entity.entity("{}", MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        response.close();
+    }
+
+    @Test
+    @InSequence(11)
+    public void mailMergeJsonToHtml(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        String inputJson = "{'email_to': 'marie@example.com', 'firstName': 'Marie', 'surname': 'Curie'}\n"
+                + "{'firstName': 'No', 'surname': 'Email'}\n"
+                + "{'email_to': 'alan@example.com', 'firstName': 'Alan', 'surname': 'Turing'}\n";
+        Response response = webTarget
+                .path("/render_notification")
+                .path("BasicJSON.html")
+                .path("mail_merge")
+                .queryParam("email_subject", "Test Mail Merge")
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .post(Entity.entity(inputJson, "application/x-ndjson"));
+        Assert.assertEquals(Response.Status.ACCEPTED.getStatusCode(), response.getStatus());
+        MailMergeJob job = response.readEntity(MailMergeJob.class);
+        response.close();
+        for (int i = 0; (i < 50) && MailMergeJob.RUNNING.equals(job.getStatus()); i++) {
+            Thread.sleep(100);
+            response = webTarget
+                    .path("/render_notification")
+                    .path("mail_merges")
+                    .path(job.getJobId())
+                    .request(MediaType.APPLICATION_JSON)
+                    .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                    .get();
+            Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            job = response.readEntity(MailMergeJob.class);
+            response.close();
+        }
+        Assert.assertEquals(MailMergeJob.COMPLETED, job.getStatus());
+        Assert.assertEquals(3, job.getRecords());
+        Assert.assertEquals(2, job.getQueued());
+        Assert.assertEquals(1, job.getFailed());
+        Assert.assertTrue(job.getErrors().get(0).startsWith("Record 2: FMR16"));
+        Assert.assertTrue(greenMail.waitForIncomingEmail(5000, 2));
+        MimeMessage[] emails = greenMail.getReceivedMessages();
+        Assert.assertEquals(2, emails.length);
+        for (MimeMessage email : emails) {
+            Assert.assertEquals("Test Mail Merge", email.getSubject());
+            String body = GreenMailUtil.getBody(email);
+            String to = email.getAllRecipients()[0].toString();
+            Assert.assertTrue(to.equals("marie@example.com") ? body.contains("Hi Marie Curie,") : body.contains("Hi Alan Turing,"));
+        }
+    }
+
+    @Test
+    @InSequence(11)
+    public void mailMergeEmailSubjectRequired(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        Response response = webTarget
+                .path("/render_notification")
+                .path("BasicJSON.html")
+                .path("mail_merge")
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .post(Entity.entity("[]", MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        ResponseError responseError = response.readEntity(ResponseError.class);
+        Assert.assertEquals("FMR14", responseError.getErrorCode());
+        response.close();
+    }
+
+    @Test
+    @InSequence(11)
+    public void getMailMergeInvalidJobId(@ArquillianResteasyResource WebTarget webTarget) throws Exception {
+        Response response = webTarget
+                .path("/render_notification")
+                .path("mail_merges")
+                .path("0f8fad5b-d9cb-469f-a165-70867728950e")
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + KEYCLOAK_TOKEN.getAccessToken())
+                .get();
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        ResponseError responseError = response.readEntity(ResponseError.class);
+        Assert.assertEquals("FMR17", responseError.getErrorCode());
+        response.close();
+    }
 }